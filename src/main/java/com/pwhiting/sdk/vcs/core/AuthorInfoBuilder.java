@@ -196,9 +196,11 @@ public class AuthorInfoBuilder {
 				Collections.sort(authorInfo.getData(), SORTER_COMMITS);
 				break;
 			case ADDITIONS:
+				loadRangeTotals();
 				Collections.sort(authorInfo.getData(), SORTER_ADDITIONS);
 				break;
 			case DELETIONS:
+				loadRangeTotals();
 				Collections.sort(authorInfo.getData(), SORTER_DELETIONS);
 				break;
 			case NAME:
@@ -212,6 +214,23 @@ public class AuthorInfoBuilder {
 
 	}
 
+	/**
+	 * Works out every committer's totals once before sorting by them. The
+	 * statistics are all loaded first, as loading one committer's would make
+	 * the totals already worked out for the others out of date.
+	 */
+	private void loadRangeTotals() {
+
+		for (final CommitterInfo ci : authorInfo.getData()) {
+			ci.loadRangeLineStats();
+		}
+
+		for (final CommitterInfo ci : authorInfo.getData()) {
+			ci.getRangeTotals();
+		}
+
+	}
+
 	@Override
 	public String toString() {
 
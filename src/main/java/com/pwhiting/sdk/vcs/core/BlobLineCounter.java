@@ -0,0 +1,126 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import com.pwhiting.util.OrderedWorkerPool;
+
+/**
+ * Counts the lines of blobs by streaming them and counting line breaks, so no
+ * blob is ever held in memory whole. Blobs are spread over a pool of workers,
+ * each with its own {@link ObjectReader}.
+ * <p>
+ * Counts match a diff against nothing: binary blobs, which have a NUL in their
+ * first few bytes, and blobs over the big file threshold have no lines, and a
+ * last line without a line break still counts.
+ *
+ * @author phwhitin
+ *
+ */
+final class BlobLineCounter extends OrderedWorkerPool<ObjectId, Integer> {
+
+	/**
+	 * How far into a blob to look for a NUL, the same as git.
+	 */
+	private static final int BINARY_CHECK_LENGTH = 8000;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Repository repository;
+
+	BlobLineCounter(final Repository repository, final int threads) {
+		super(threads);
+		this.repository = repository;
+	}
+
+	/**
+	 * Counts the lines of each blob.
+	 *
+	 * @param blobs
+	 * @return the line counts, index for index with {@code blobs}
+	 * @throws IOException
+	 */
+	List<Integer> count(final List<ObjectId> blobs) throws IOException {
+
+		try {
+			return process(blobs);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+			throw new IOException("Could not count lines", e.getCause());
+		}
+	}
+
+	@Override
+	protected Worker<ObjectId, Integer> newWorker() {
+		return new CountWorker();
+	}
+
+	/**
+	 * Counts the lines in a stream.
+	 *
+	 * @param in
+	 * @return the line count, or 0 if the content is binary
+	 * @throws IOException
+	 */
+	static int countLines(final InputStream in) throws IOException {
+
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		long position = 0;
+		int lines = 0;
+		byte last = '\n';
+		int read;
+
+		while ((read = in.read(buffer)) != -1) {
+
+			for (int i = 0; i < read; i++) {
+
+				if (buffer[i] == '\n') {
+					lines++;
+				} else if (buffer[i] == '\0' && position + i < BINARY_CHECK_LENGTH) { return 0; }
+
+			}
+
+			if (read > 0) {
+				last = buffer[read - 1];
+			}
+
+			position += read;
+		}
+
+		return last == '\n' ? lines : lines + 1;
+	}
+
+	private final class CountWorker implements Worker<ObjectId, Integer> {
+
+		private final ObjectReader reader = repository.newObjectReader();
+
+		@Override
+		public Integer process(final ObjectId blob) throws IOException {
+
+			final ObjectLoader loader = reader.open(blob, Constants.OBJ_BLOB);
+
+			if (loader.getSize() > PackConfig.DEFAULT_BIG_FILE_THRESHOLD) { return 0; }
+
+			try (InputStream in = loader.openStream()) {
+				return countLines(in);
+			}
+
+		}
+
+		@Override
+		public void close() {
+			reader.close();
+		}
+
+	}
+
+}
@@ -1,45 +1,35 @@
 package com.pwhiting.sdk.vcs.core;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.CheckoutConflictException;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.InvalidRefNameException;
-import org.eclipse.jgit.api.errors.RefAlreadyExistsException;
-import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.api.errors.WrongRepositoryStateException;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.errors.CorruptObjectException;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.patch.HunkHeader;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.pwhiting.sdk.vcs.core.TreeStatsCache.TreeStats;
 import com.pwhiting.sdk.vcs.core.util.SortMethod;
-import com.pwhiting.util.Util;
+import com.pwhiting.sdk.vcs.core.util.TimelineInterval;
 import com.pwhiting.util.lang.ClocData;
-import com.pwhiting.util.lang.ClocData.Header;
-import com.pwhiting.util.lang.ClocData.LangStats;
 import com.pwhiting.util.lang.ClocService;
-import com.pwhiting.util.lang.CodeSniffer;
-import com.pwhiting.util.lang.CodeSniffer.Language;
 
 /**
  * Class used to hold information about a specific branch in a repository. Also
@@ -56,22 +46,43 @@ public class BranchInfo extends HistoryViewer {
 
 	private final Map<String, CommitterInfo> authorInfo;
 
+	/**
+	 * Holds the commits of every branch of the repo, so a commit shared by
+	 * branches is only stored once.
+	 */
+	private final CommitStore commitStore;
+
+	/**
+	 * The rows of {@link #commitStore} logged for this branch.
+	 */
+	private BitSet loggedRows = new BitSet();
+
+	private CommitTimeIndex timeIndex;
+
+	/**
+	 * How many logged commits have no line statistics.
+	 */
+	private int missingLineStats;
+
 	BranchInfo(final Repo theRepo) {
-		this("Unknown", theRepo, "", new Date());
+		this("Unknown", theRepo, "", new Date(), new CommitStore());
 	}
 
-	BranchInfo(final String branch, final Repo theRepo) {
-		this(branch, theRepo, "", new Date());
+	BranchInfo(final String branch, final Repo theRepo, final CommitStore commitStore) {
+		this(branch, theRepo, "", new Date(), commitStore);
 	}
 
-	private BranchInfo(final String branch, final Repo theRepo, final String id, final Date date) {
-		this(branch, theRepo, id, date, new HashMap<String, CommitterInfo>(), new ClocData());
+	private BranchInfo(final String branch, final Repo theRepo, final String id, final Date date,
+			final CommitStore commitStore) {
+		this(branch, theRepo, id, date, new HashMap<String, CommitterInfo>(), new ClocData(), commitStore);
 	}
 
 	private BranchInfo(final String branch, final Repo theRepo, final String id, final Date date,
-			final Map<String, CommitterInfo> authorInfo, final ClocData data) {
+			final Map<String, CommitterInfo> authorInfo, final ClocData data, final CommitStore commitStore) {
 		super(branch, theRepo, id, date, data);
 		this.authorInfo = authorInfo;
+		this.commitStore = commitStore;
+		timeIndex = new CommitTimeIndex(commitStore);
 
 	}
 
@@ -81,7 +92,7 @@ public class BranchInfo extends HistoryViewer {
 
 		if (!authorInfo.containsKey(author)) {
 
-			ai = new CommitterInfo(committer, committerEmail, author, authorEmail);
+			ai = new CommitterInfo(commitStore, loggedRows, committer, committerEmail, author, authorEmail);
 			authorInfo.put(author, ai);
 
 		} else {
@@ -92,6 +103,73 @@ public class BranchInfo extends HistoryViewer {
 
 	}
 
+	/**
+	 * Logs a commit for one of this branch's committers.
+	 *
+	 * @param ai
+	 *            the committer, from
+	 *            {@link #getAuthorInfo(String, String, String, String)}
+	 * @param commit
+	 * @return true if the commit was added, false if it was already logged
+	 */
+	boolean addCommit(final CommitterInfo ai, final Commit commit) {
+		return !addCommits(ai, Collections.singletonList(commit)).isEmpty();
+	}
+
+	/**
+	 * Logs commits for one of this branch's committers in one go. Commits that
+	 * were already logged are skipped.
+	 *
+	 * @param ai
+	 *            the committer, from
+	 *            {@link #getAuthorInfo(String, String, String, String)}
+	 * @param commits
+	 * @return the commits that were added
+	 */
+	List<Commit> addCommits(final CommitterInfo ai, final List<Commit> commits) {
+
+		final List<Commit> added = ai.addNew(commits);
+
+		for (final Commit commit : added) {
+			timeIndex.add(commit.getRow());
+
+			if (!commit.hasLineStats()) {
+				missingLineStats++;
+			}
+
+		}
+
+		return added;
+	}
+
+	/**
+	 * Forgets every committer and commit logged for this branch.
+	 */
+	void clearAuthorInfo() {
+		authorInfo.clear();
+
+		// The rows stay in the shared store, copies handed out earlier keep
+		// the old set
+		loggedRows = new BitSet();
+		timeIndex = new CommitTimeIndex(commitStore);
+		missingLineStats = 0;
+		mostRecentLoggedCommit = null;
+	}
+
+	/**
+	 * Checks if any commit was logged without line statistics, such as by a
+	 * metadata only sync. Totals over such commits leave their lines out.
+	 *
+	 * @return
+	 */
+	public boolean isMissingLineStats() {
+		return missingLineStats > 0;
+	}
+
+	Collection<CommitterInfo> getCommitters() {
+		return authorInfo.values();
+	}
+
 	/**
 	 * Gets the statistics that have been logged for this branch. The data is
 	 * stored in memory for efficiency, so data may be inaccurate unless
@@ -106,6 +184,16 @@ public class BranchInfo extends HistoryViewer {
 
 	}
 
+	/**
+	 * Adds up the commits logged for this branch within a date range.
+	 *
+	 * @param dateRange
+	 * @return the totals
+	 */
+	public CommitTotals getTotals(final Range<Date> dateRange) {
+		return timeIndex.getTotals(dateRange);
+	}
+
 	public int getCommitCount() {
 		int count = 0;
 
@@ -129,16 +217,13 @@ public class BranchInfo extends HistoryViewer {
 	public HistoryViewer getHistoryForCommit(final String commitId, final boolean useCloc) {
 
 		HistoryViewer hv = new HistoryViewer(branch, theRepo, commitId, new Date());
-		final DiffFormatter df = new DiffFormatter(new ByteArrayOutputStream());
 
 		try {
 
-			hv = lookupHistoryFor(commitId, df, useCloc);
+			hv = lookupHistoryFor(commitId, useCloc);
 
 		} catch (final Exception e) {
 			LOGGER.error("Could not find history for commit id " + commitId, e);
-		} finally {
-			df.close();
 		}
 
 		return hv;
@@ -177,51 +262,41 @@ public class BranchInfo extends HistoryViewer {
 	 */
 	public HistoryViewer getHistoryForDate(final Date date, final boolean useCloc) {
 
-		Date prev = new Date(0L);
+		final Commit commit = timeIndex.getCommitAt(date);
 
-		Commit temp2 = new Commit();
-
-		for (final CommitterInfo ai : authorInfo.values()) {
-
-			ai.limitToDateRange(Range.closed(prev, date));
-
-			final List<Commit> acs = ai.getCommits();
-
-			for (final Commit ac : acs) {
-
-				final Date date2 = ac.getTimestamp();
-				if (date2.after(prev) && date2.compareTo(date) < 1) {
-					temp2 = ac;
-					prev = date2;
-				}
-
-			}
-
-		}
-
-		final HistoryViewer hv = getHistoryForCommit(temp2.getId(), useCloc);
+		final HistoryViewer hv = commit != null ? getHistoryForCommit(commit.getId(), useCloc) : new HistoryViewer(
+				branch, theRepo, "", date);
 		hv.setDate(date);
 		return hv;
 
 	}
 
-	void getHistoryGit(final RevCommit rc, final DiffFormatter df, final boolean useCloc) throws IncorrectObjectTypeException, IOException {
-
-		@SuppressWarnings("resource")
-		final Git git = theRepo instanceof GitRepo ? ((GitRepo) theRepo).theRepo : null;
+	/**
+	 * Generates the statistics for the commit straight from its tree, without
+	 * touching the working tree. Cloc needs files on disk, so for cloc the tree
+	 * is written out to the repo's {@link ClocTree}, which only rewrites the
+	 * files that changed since the tree it held before.
+	 *
+	 * @param rc
+	 * @param useCloc
+	 * @throws IOException
+	 */
+	void getHistoryGit(final RevCommit rc, final boolean useCloc) throws IOException {
 
-		if (git == null) { return; }
+		if (!(theRepo instanceof GitRepo)) { return; }
 
 		resetInfo();
 
+		final GitRepo repo = (GitRepo) theRepo;
+		final Repository repository = repo.theRepo.getRepository();
+
 		if (ClocService.canGetCLOCStats() && useCloc) {
 
 			LOGGER.debug("Will use cloc to analyze");
 
 			try {
-				final ClocData theData = ClocService.getClocStatistics(git.getRepository()
-						.getWorkTree());
-				getData().imprint(theData);
+
+				getData().imprint(repo.getClocTree().getClocStatistics(rc.getTree(), repo.getPathFilter()));
 				usesCLOCStats = true;
 				return;
 
@@ -234,42 +309,93 @@ public class BranchInfo extends HistoryViewer {
 
 		}
 
-		final Map<Language, LangStats> langStats = getData().getLanguageStatsMutable();
+		addStatistics(repo.getTreeStats().compute(repository, rc.getTree(), repo.getDiffThreadCount()));
 
-		final ObjectReader reader = git.getRepository().newObjectReader();
+	}
 
-		final EmptyTreeIterator oldTreeIter = new EmptyTreeIterator();
-		oldTreeIter.reset();
+	/**
+	 * Generates snapshots of the branch over time with builtin analysis, the
+	 * same as {@link #getHistoryForCommit(String, boolean)} would give for each
+	 * commit, but from a single pass over the history. See
+	 * {@link TimelineBuilder} for which commits get a snapshot.
+	 *
+	 * @param interval
+	 *            how far apart the snapshots are
+	 * @return the snapshots, oldest first. Empty if the branch is not on the
+	 *         remote, or its history could not be read.
+	 */
+	public List<HistoryViewer> getTimeline(final TimelineInterval interval) {
+
+		final List<HistoryViewer> timeline = Lists.newArrayList();
+
+		if (!(theRepo instanceof GitRepo)) { return timeline; }
+
+		final GitRepo repo = (GitRepo) theRepo;
+		final Repository repository = repo.theRepo.getRepository();
+
+		try {
+
+			final ObjectId head = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/"
+					+ getBranchName());
+
+			if (head == null) {
+				LOGGER.debug("Branch {} is not on the remote, so it has no timeline", getBranchName());
+				return timeline;
+			}
+
+			for (final Map.Entry<RevCommit, TreeStats> entry : new TimelineBuilder(repository,
+					repo.getDiffThreadCount(), repo.getPathFilter()).build(head, interval).entrySet()) {
 
-		final CanonicalTreeParser newTreeIter = new CanonicalTreeParser();
-		final ObjectId newTree = rc.getTree();
-		newTreeIter.reset(reader, newTree);
+				final RevCommit rc = entry.getKey();
+				final HistoryViewer history = new HistoryViewer(branch, theRepo, rc.getId().name(), new Date(
+						rc.getCommitTime() * 1000L));
 
-		df.setRepository(git.getRepository());
-		final List<DiffEntry> entries = df.scan(oldTreeIter, newTreeIter);
+				history.addStatistics(entry.getValue());
+				timeline.add(history);
+			}
 
-		final Header header = getData().getHeader();
+		} catch (final Exception e) {
+			LOGGER.error("Could not build the timeline for branch " + getBranchName(), e);
+		}
 
-		for (final DiffEntry entry : entries) {
+		return timeline;
+	}
 
-			final Language lang = CodeSniffer.detectLanguage(entry.getNewPath());
+	/**
+	 * Breaks the statistics of a commit down by directory. Subtrees seen in
+	 * earlier snapshots are not read again, so this costs about the same as
+	 * {@link #getHistoryForCommit(String, boolean)} with builtin analysis.
+	 *
+	 * @param commitId
+	 * @param depth
+	 *            how many levels of directories to include, 0 for just the
+	 *            root
+	 * @return map of directory path to its statistics, the root is "". Empty
+	 *         if the commit could not be read.
+	 */
+	public Map<String, ClocData> getDirectoryStatistics(final String commitId, final int depth) {
 
-			final LangStats langStat = Util.putIfAbsent(langStats, lang, new LangStats(lang));
+		final Map<String, ClocData> directories = Maps.newLinkedHashMap();
 
-			incrementFileCount(1);
+		if (!(theRepo instanceof GitRepo)) { return directories; }
 
-			langStat.setnFiles(langStat.getnFiles() + 1);
+		final GitRepo repo = (GitRepo) theRepo;
+		final Repository repository = repo.theRepo.getRepository();
 
-			for (final HunkHeader hunk : df.toFileHeader(entry).getHunks()) {
+		try (RevWalk rw = new RevWalk(repository)) {
 
-				header.setnLines(header.getnLines() + hunk.getNewLineCount());
-				langStat.setCodeLines(langStat.getCodeLines() + hunk.getNewLineCount());
-				incrementLineCount(hunk.getNewLineCount());
+			final RevCommit rc = rw.parseCommit(repository.resolve(commitId));
 
+			for (final Map.Entry<String, TreeStats> entry : repo.getTreeStats().compute(repository, rc.getTree(),
+					repo.getDiffThreadCount(), depth).entrySet()) {
+				directories.put(entry.getKey(), entry.getValue().toClocData());
 			}
 
+		} catch (final Exception e) {
+			LOGGER.error("Could not find directory statistics for commit id " + commitId, e);
 		}
 
+		return directories;
 	}
 
 	String getMostRecentLoggedCommit() {
@@ -287,33 +413,26 @@ public class BranchInfo extends HistoryViewer {
 	 * @throws MissingObjectException
 	 * @throws CorruptObjectException
 	 * @throws GitAPIException
-	 * @throws CheckoutConflictException
-	 * @throws InvalidRefNameException
-	 * @throws RefNotFoundException
-	 * @throws RefAlreadyExistsException
 	 */
-	private HistoryViewer lookupHistoryFor(final String commitId, final DiffFormatter df, final boolean useCloc) throws IOException, GitAPIException {
+	private HistoryViewer lookupHistoryFor(final String commitId, final boolean useCloc) throws IOException, GitAPIException {
 
 		@SuppressWarnings("resource")
 		final Git git = theRepo instanceof GitRepo ? ((GitRepo) theRepo).theRepo : null;
 
 		if (git == null) { throw new WrongRepositoryStateException("Tried to treat the repository as a GitRepo, when it is not"); }
 
-		final RevWalk rw = new RevWalk(git.getRepository());
-		final RevCommit current = rw.parseCommit(git.getRepository().resolve(Constants.HEAD));
-		final RevCommit rc = rw.parseCommit(git.getRepository().resolve(commitId));
+		final RevCommit rc;
 
-		rw.close();
-
-		git.checkout().setCreateBranch(false).setName(commitId).call();
+		try (RevWalk rw = new RevWalk(git.getRepository())) {
+			rc = rw.parseCommit(git.getRepository().resolve(commitId));
+		}
 
 		final Date date = new Date(rc.getCommitTime() * 1000L);
 
-		final BranchInfo hv = new BranchInfo(branch, theRepo, rc.getId().name(), date);
+		final BranchInfo hv = new BranchInfo(branch, theRepo, rc.getId().name(), date, new CommitStore());
 
-		hv.getHistoryGit(rc, df, useCloc);
+		hv.getHistoryGit(rc, useCloc);
 
-		git.checkout().setCreateBranch(false).setName(current.name());
 		final HistoryViewer history = new HistoryViewer(branch, theRepo, commitId, date);
 		history.usesCLOCStats = hv.usesCLOCStats;
 		history.data.getLanguageStatsMutable().putAll(hv.data.getLanguageStatsMutable());
@@ -0,0 +1,126 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.util.lang.ClocData;
+import com.pwhiting.util.lang.ClocService;
+
+/**
+ * A directory that holds the counted files of one tree at a time, for cloc to
+ * analyze. Moving it to another tree only writes and deletes the files that
+ * differ, so snapshots of nearby commits, such as a branch head before and
+ * after a sync, cost about as much as the change between them.
+ * <p>
+ * What the directory holds is only known for trees written by this instance,
+ * so the first tree written, and the first after a failure, starts from an
+ * empty directory. There is only the one directory, so calls take turns.
+ *
+ * @author phwhitin
+ *
+ */
+final class ClocTree {
+
+	private final Repository repository;
+
+	private final File directory;
+
+	/**
+	 * The tree in the directory, or null if not known.
+	 */
+	private ObjectId tree;
+
+	/**
+	 * The paths written for {@link #tree}.
+	 */
+	private PathGlobFilter filter;
+
+	ClocTree(final Repository repository, final File directory) {
+		this.repository = repository;
+		this.directory = directory;
+	}
+
+	/**
+	 * Runs cloc over the tree.
+	 *
+	 * @param tree
+	 * @param filter
+	 *            which paths are counted
+	 * @return the statistics
+	 * @throws IOException
+	 *             if the tree could not be written, or cloc failed
+	 */
+	synchronized ClocData getClocStatistics(final ObjectId tree, final PathGlobFilter filter) throws IOException {
+		moveTo(tree, filter);
+		return ClocService.getClocStatistics(directory);
+	}
+
+	private void moveTo(final ObjectId target, final PathGlobFilter targetFilter) throws IOException {
+
+		if (target.equals(tree) && targetFilter.equals(filter)) { return; }
+
+		final ObjectId from = targetFilter.equals(filter) ? tree : null;
+
+		// Unknown until the move finishes
+		tree = null;
+
+		if (from == null) {
+			FileUtils.deleteDirectory(directory);
+		}
+
+		FileUtils.forceMkdir(directory);
+
+		try (ObjectReader reader = repository.newObjectReader();
+				DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+
+			df.setRepository(repository);
+			df.setDetectRenames(false);
+			df.setPathFilter(targetFilter.toTreeFilter());
+
+			for (final DiffEntry entry : df.scan(from, target)) {
+
+				if (entry.getChangeType() != ChangeType.ADD) {
+					FileUtils.deleteQuietly(new File(directory, entry.getOldPath()));
+				}
+
+				// Submodules have no files to count
+				if (entry.getChangeType() == ChangeType.DELETE
+						|| entry.getNewMode().getObjectType() != Constants.OBJ_BLOB) {
+					continue;
+				}
+
+				final File file = new File(directory, entry.getNewPath());
+
+				// A directory that became a file comes before the deletes of its files
+				if (file.isDirectory()) {
+					FileUtils.deleteDirectory(file);
+				}
+
+				FileUtils.forceMkdir(file.getParentFile());
+
+				try (OutputStream out = new FileOutputStream(file)) {
+					reader.open(entry.getNewId().toObjectId(), Constants.OBJ_BLOB).copyTo(out);
+				}
+
+			}
+
+		}
+
+		tree = target.copy();
+		filter = targetFilter;
+	}
+
+}
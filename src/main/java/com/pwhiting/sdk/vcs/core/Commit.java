@@ -2,35 +2,58 @@ package com.pwhiting.sdk.vcs.core;
 
 import java.util.Date;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.google.common.collect.Range;
-import com.pwhiting.util.DateLimitedData;
+import com.pwhiting.util.TimestampedData;
 
 /**
  * Used to store information about a commit made by author.
+ * <p>
+ * The data of a logged commit lives in a row of the repo's
+ * {@link CommitStore}, so the commit is only a view of the store, and is cheap
+ * to make and throw away. A commit made with a constructor, before it is
+ * logged or as read from elsewhere, holds its own data in plain fields.
+ * <p>
+ * If the line statistics were left to be worked out on demand, asking for
+ * any of them works them out.
  *
  * @author phwhitin
  *
  */
-public class Commit implements DateLimitedData {
+@JsonPropertyOrder({ "id", "timestamp", "changedFiles", "additions", "deletions", "message", "committer",
+		"mergeCommit" })
+public class Commit implements TimestampedData {
+
+	/**
+	 * The store this is a view of, or null if this holds its own data.
+	 */
+	private final CommitStore store;
+
+	private final int row;
 
 	private final String id;
 
-	private final long timestamp;
+	private final long time;
 
 	private final int changedFiles;
 
 	private final int additions;
 
 	private final int deletions;
-	
-	@JsonProperty("mergeCommit")
+
 	private final boolean isMergeCommit;
 
 	private final String message;
-	
+
 	private String committer;
 
+	private boolean hasLineStats = true;
+
+	private boolean hasSkippedFiles;
+
 	public Commit() {
 		this("", new Date(0L), 0, 0, 0, false, "");
 	}
@@ -38,35 +61,96 @@ public class Commit implements DateLimitedData {
 	public Commit(final String id, final Date timestamp, final int changedFiles,
 			final int additions, final int deletions, final boolean isMergeCommit,
 			final String message) {
+		this(id, timestamp, changedFiles, additions, deletions, isMergeCommit, message, null);
+	}
+
+	@JsonCreator
+	Commit(@JsonProperty("id") final String id, @JsonProperty("timestamp") final Date timestamp,
+			@JsonProperty("changedFiles") final int changedFiles, @JsonProperty("additions") final int additions,
+			@JsonProperty("deletions") final int deletions, @JsonProperty("mergeCommit") final boolean isMergeCommit,
+			@JsonProperty("message") final String message, @JsonProperty("committer") final String committer) {
 
-		this.id = id;
-		this.timestamp = timestamp.getTime();
+		store = null;
+		row = -1;
+		this.id = id == null ? "" : id;
+		time = timestamp == null ? 0L : timestamp.getTime();
 		this.changedFiles = changedFiles;
 		this.additions = additions;
 		this.deletions = deletions;
 		this.isMergeCommit = isMergeCommit;
-		this.message = message;
+		this.message = message == null ? "" : message;
+		this.committer = committer;
+
+	}
+
+	/**
+	 * Makes a commit whose line statistics were not computed.
+	 */
+	static Commit withoutLineStats(final String id, final Date timestamp, final boolean isMergeCommit,
+			final String message) {
 
+		final Commit commit = new Commit(id, timestamp, 0, 0, 0, isMergeCommit, message, null);
+		commit.hasLineStats = false;
+		return commit;
 	}
-	
+
+	Commit(final CommitStore store, final int row) {
+		this.store = store;
+		this.row = row;
+		id = null;
+		time = 0L;
+		changedFiles = 0;
+		additions = 0;
+		deletions = 0;
+		isMergeCommit = false;
+		message = null;
+	}
+
+	/**
+	 * @return the store this is a view of, or null if this is not logged
+	 */
+	CommitStore getStore() {
+		return store;
+	}
+
+	int getRow() {
+		return row;
+	}
+
 	void setCommitter(final String name) {
-		committer = name;
+		if (store == null) {
+			committer = name;
+		} else {
+			store.setCommitter(row, name);
+		}
 	}
-	
+
 	public String getCommitter() {
-		return committer;
+		return store == null ? committer : store.getCommitter(row);
 	}
 
 	public int getAdditions() {
-		return additions;
+
+		if (store == null) { return hasLineStats ? additions : 0; }
+
+		store.loadLineStats(row);
+		return store.getAdditions(row);
 	}
 
 	public int getChangedFiles() {
-		return changedFiles;
+
+		if (store == null) { return hasLineStats ? changedFiles : 0; }
+
+		store.loadLineStats(row);
+		return store.getChangedFiles(row);
 	}
 
 	public int getDeletions() {
-		return deletions;
+
+		if (store == null) { return hasLineStats ? deletions : 0; }
+
+		store.loadLineStats(row);
+		return store.getDeletions(row);
 	}
 
 	/**
@@ -75,15 +159,66 @@ public class Commit implements DateLimitedData {
 	 * @return
 	 */
 	public String getId() {
-		return id;
+		return store == null ? id : store.getId(row);
 	}
 
 	public String getMessage() {
-		return message;
+		return store == null ? message : store.getMessage(row);
+	}
+
+	/**
+	 * Checks if additions, deletions and changed files were worked out for
+	 * this commit. If not, they are all 0, as from a metadata only sync, unless
+	 * they can still be worked out on demand. This does not work them out.
+	 *
+	 * @return
+	 */
+	public boolean hasLineStats() {
+		return store == null ? hasLineStats : store.hasLineStats(row);
+	}
+
+	/**
+	 * Drops the line statistics of a commit that is not logged yet.
+	 */
+	void clearLineStats() {
+		if (store == null) {
+			hasLineStats = false;
+		} else {
+			store.clearLineStats(row);
+		}
+	}
+
+	/**
+	 * Checks if some of the changed files were counted without a line diff,
+	 * for being binary or over the size limit. Their lines are not in the
+	 * additions and deletions.
+	 *
+	 * @return
+	 */
+	public boolean hasSkippedFiles() {
+
+		if (store == null) { return hasLineStats && hasSkippedFiles; }
+
+		store.loadLineStats(row);
+		return store.hasSkippedFiles(row);
+	}
+
+	void markSkippedFiles() {
+		if (store == null) {
+			hasSkippedFiles = true;
+		} else {
+			store.markSkippedFiles(row);
+		}
 	}
 
 	public Date getTimestamp() {
-		return new Date(timestamp);
+		return new Date(getTime());
+	}
+
+	@JsonIgnore
+	@Override
+	public long getTime() {
+		return store == null ? time : store.getTime(row);
 	}
 
 	@Override
@@ -91,23 +226,43 @@ public class Commit implements DateLimitedData {
 		return dateRange.contains(getTimestamp());
 	}
 
+	@JsonProperty("mergeCommit")
 	public boolean isMergeCommit() {
-		return isMergeCommit;
+		return store == null ? isMergeCommit : store.isMergeCommit(row);
 	}
-	
+
 	public boolean isTheSame(Commit other) {
-		return this.id.equals(other.id) && this.timestamp == other.timestamp;
+		return getId().equals(other.getId()) && getTime() == other.getTime();
+	}
+
+	/**
+	 * Views of the same row are equal. A commit that is not logged is only
+	 * equal to itself.
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+
+		if (this == obj) { return true; }
+		if (store == null || !(obj instanceof Commit)) { return false; }
+
+		final Commit other = (Commit) obj;
+		return store == other.store && row == other.row;
+	}
+
+	@Override
+	public int hashCode() {
+		return store == null ? System.identityHashCode(this) : System.identityHashCode(store) * 31 + row;
 	}
 
 	@Override
 	public String toString() {
-		String value = "Id: " + id;
+		String value = "Id: " + getId();
 		value += ", Timestamp: " + getTimestamp();
-		value += ", Changed Files: " + changedFiles;
-		value += ", Additions: " + additions;
-		value += ", Deletions: " + deletions;
-		value += isMergeCommit ? "\n\tMerge Commit, " : "\n\t";
-		value += "Message: " + message;
+		value += ", Changed Files: " + getChangedFiles();
+		value += ", Additions: " + getAdditions();
+		value += ", Deletions: " + getDeletions();
+		value += isMergeCommit() ? "\n\tMerge Commit, " : "\n\t";
+		value += "Message: " + getMessage();
 
 		return value;
 	}
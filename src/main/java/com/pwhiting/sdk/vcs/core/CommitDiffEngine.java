@@ -0,0 +1,221 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import com.google.common.collect.Lists;
+import com.pwhiting.sdk.vcs.core.util.BlobDiffCache;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.util.OrderedWorkerPool;
+
+/**
+ * Works out the additions, deletions and changed files of commits. Commits are
+ * spread over a pool of workers, each with its own {@link DiffFormatter} for
+ * finding changed paths and its own {@link LineDiffCounter} for counting lines,
+ * and results come back in the order the commits were given in.
+ * <p>
+ * Binary files and files over the size limit are counted as changed without
+ * a line diff, and results say how many there were. Merges are diffed against
+ * the parents their {@link MergeStrategy} picks.
+ *
+ * @author phwhitin
+ *
+ */
+final class CommitDiffEngine extends OrderedWorkerPool<CommitDiffEngine.DiffRequest, int[]> {
+
+	private final Repository repository;
+
+	private final BlobDiffCache cache;
+
+	private final PathGlobFilter filter;
+
+	private final long maxBlobSize;
+
+	private final MergeStrategy mergeStrategy;
+
+	/**
+	 * @param filter
+	 *            which paths are diffed, others are never read
+	 * @param maxBlobSize
+	 *            the size in bytes above which files are not line diffed
+	 * @param mergeStrategy
+	 *            which parents merges are diffed against
+	 */
+	CommitDiffEngine(final Repository repository, final BlobDiffCache cache, final int threads,
+			final PathGlobFilter filter, final long maxBlobSize, final MergeStrategy mergeStrategy) {
+		super(threads);
+		this.repository = repository;
+		this.cache = cache;
+		this.filter = filter;
+		this.maxBlobSize = maxBlobSize;
+		this.mergeStrategy = mergeStrategy;
+	}
+
+	/**
+	 * Gets how many of the commit's parents it is diffed against, the first
+	 * ones are always picked. The parents' headers must be parsed before the
+	 * commit is compared.
+	 *
+	 * @param rc
+	 * @param mergeStrategy
+	 * @return
+	 */
+	static int getParentsToDiff(final RevCommit rc, final MergeStrategy mergeStrategy) {
+
+		if (rc.getParentCount() < 2) { return rc.getParentCount(); }
+
+		switch (mergeStrategy) {
+			case FIRST_PARENT:
+				return 1;
+			case SKIP_MERGES:
+				return 0;
+			default:
+				return rc.getParentCount();
+		}
+
+	}
+
+	/**
+	 * Compares each commit to its parents.
+	 *
+	 * @param commits
+	 * @return one array per commit - index reference: 0 = additions, 1 =
+	 *         deletions, 2 = files changed, 3 = files changed without a line
+	 *         diff
+	 * @throws IOException
+	 */
+	List<int[]> compare(final List<RevCommit> commits) throws IOException {
+
+		final List<DiffRequest> requests = Lists.newArrayListWithCapacity(commits.size());
+
+		for (final RevCommit rc : commits) {
+			requests.add(new DiffRequest(rc, getParentsToDiff(rc, mergeStrategy)));
+		}
+
+		try {
+			return process(requests);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+			throw new IOException("Could not compare commits", e.getCause());
+		}
+	}
+
+	@Override
+	protected Worker<DiffRequest, int[]> newWorker() {
+		return new DiffWorker();
+	}
+
+	/**
+	 * The trees needed to diff a commit. These are pulled off the
+	 * {@link RevCommit} on the walking thread, so workers never touch the walk.
+	 */
+	static final class DiffRequest {
+
+		private final ObjectId tree;
+
+		private final ObjectId[] parentTrees;
+
+		/** Set for a skipped merge, which is not compared to anything */
+		private final boolean isSkipped;
+
+		DiffRequest(final RevCommit rc, final int parents) {
+
+			tree = rc.getTree().getId();
+			parentTrees = new ObjectId[parents];
+			isSkipped = parents == 0 && rc.getParentCount() > 0;
+
+			for (int i = 0; i < parentTrees.length; i++) {
+				parentTrees[i] = rc.getParent(i).getTree().getId();
+			}
+
+		}
+
+	}
+
+	private final class DiffWorker implements Worker<DiffRequest, int[]> {
+
+		private final DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
+
+		private final LineDiffCounter counter = new LineDiffCounter(repository, cache, maxBlobSize);
+
+		DiffWorker() {
+			df.setRepository(repository);
+			df.setPathFilter(filter.toTreeFilter());
+		}
+
+		@Override
+		public int[] process(final DiffRequest request) throws IOException {
+
+			final int[] totals = new int[4];
+
+			if (request.isSkipped) {
+
+				return totals;
+
+			} else if (request.parentTrees.length == 0) {
+
+				add(totals, compareCommits(null, request.tree));
+
+			} else {
+
+				for (final ObjectId parent : request.parentTrees) {
+					add(totals, compareCommits(parent, request.tree));
+				}
+
+			}
+
+			return totals;
+		}
+
+		/**
+		 * Compares two trees.
+		 *
+		 * @param prev
+		 *            the older tree, or null to compare against nothing
+		 * @param curr
+		 * @return array containing info - index reference: 0 = additions, 1 =
+		 *         deletions, 2 = files changed, 3 = files changed without a
+		 *         line diff
+		 * @throws IOException
+		 */
+		private int[] compareCommits(final ObjectId prev, final ObjectId curr) throws IOException {
+
+			final int[] results = new int[4];
+
+			for (final DiffEntry entry : df.scan(prev, curr)) {
+
+				results[2]++;
+
+				if (!counter.count(entry, results)) {
+					results[3]++;
+				}
+
+			}
+
+			return results;
+		}
+
+		@Override
+		public void close() {
+			df.close();
+			counter.close();
+		}
+
+		private void add(final int[] totals, final int[] results) {
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] += results[i];
+			}
+		}
+
+	}
+
+}
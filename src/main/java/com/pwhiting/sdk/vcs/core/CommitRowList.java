@@ -0,0 +1,116 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of commits that only holds their rows in a {@link CommitStore}. Each
+ * commit is a fresh view of its row, and only commits from the same store can
+ * be put in.
+ *
+ * @author phwhitin
+ *
+ */
+final class CommitRowList extends AbstractList<Commit> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final CommitStore store;
+
+	private int[] rows;
+
+	private int size;
+
+	CommitRowList(final CommitStore store) {
+		this.store = store;
+		rows = new int[INITIAL_CAPACITY];
+	}
+
+	CommitRowList(final CommitRowList other) {
+		store = other.store;
+		rows = Arrays.copyOf(other.rows, Math.max(other.size, INITIAL_CAPACITY));
+		size = other.size;
+	}
+
+	CommitStore getStore() {
+		return store;
+	}
+
+	int getRow(final int index) {
+		rangeCheck(index, size);
+		return rows[index];
+	}
+
+	/**
+	 * @param row
+	 * @return true if the row is in this list
+	 */
+	boolean containsRow(final int row) {
+
+		for (int i = 0; i < size; i++) {
+			if (rows[i] == row) { return true; }
+		}
+
+		return false;
+	}
+
+	@Override
+	public Commit get(final int index) {
+		return store.get(getRow(index));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Commit set(final int index, final Commit commit) {
+
+		final Commit old = get(index);
+		rows[index] = rowOf(commit);
+		return old;
+	}
+
+	@Override
+	public void add(final int index, final Commit commit) {
+
+		rangeCheck(index, size + 1);
+
+		final int row = rowOf(commit);
+
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, size * 2);
+		}
+
+		System.arraycopy(rows, index, rows, index + 1, size - index);
+		rows[index] = row;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Commit remove(final int index) {
+
+		final Commit old = get(index);
+
+		System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	private int rowOf(final Commit commit) {
+
+		if (commit.getStore() != store) { throw new IllegalArgumentException("Commit " + commit.getId()
+				+ " is not from this store"); }
+
+		return commit.getRow();
+	}
+
+	private static void rangeCheck(final int index, final int size) {
+		if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); }
+	}
+
+}
@@ -0,0 +1,657 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Holds the commits of a repo column by column, in primitive arrays, rather
+ * than as an object per commit. Branches sharing a commit share its row.
+ * {@link Commit} is a view of one row.
+ * <p>
+ * Ids are packed: a Git SHA-1 takes 20 bytes and an SVN revision number 8.
+ * Any other id goes in the string table.
+ * Committer names are kept once each in the string table, and messages are
+ * kept as UTF-8 in one shared array.
+ * <p>
+ * Rows are only ever added. An index of ids makes finding a commit by id
+ * constant time.
+ * <p>
+ * Line statistics that were not computed can be worked out on demand by a
+ * {@link LineStatsLoader}, the first time a commit's statistics are asked for,
+ * and are then kept like any others.
+ * <p>
+ * Adding rows and setting their data is not safe from more than one thread at
+ * once, and is left to the sync that owns the store. Working out statistics
+ * on demand, and changing the loader that does it, lock the store, so a load
+ * only runs once at a time and never sees the loader change under it.
+ *
+ * @author phwhitin
+ *
+ */
+final class CommitStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommitStore.class.getSimpleName());
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final int ID_LENGTH = 20;
+
+	private static final byte ID_SHA = 0;
+
+	private static final byte ID_NUMBER = 1;
+
+	private static final byte ID_STRING = 2;
+
+	private static final byte FLAG_MERGE = 1;
+
+	private static final byte FLAG_NO_LINE_STATS = 2;
+
+	private static final byte FLAG_SKIPPED_FILES = 4;
+
+	private static final int NONE = -1;
+
+	private long[] timestamps;
+
+	private int[] additions;
+
+	private int[] deletions;
+
+	private int[] changedFiles;
+
+	private byte[] flags;
+
+	private byte[] idKinds;
+
+	private byte[] ids;
+
+	private int[] committers;
+
+	/**
+	 * Where each message ends in {@link #messages}, a message starts where the
+	 * one before it ends.
+	 */
+	private int[] messageEnds;
+
+	private byte[] messages = new byte[0];
+
+	private final List<String> strings = Lists.newArrayList();
+
+	private final Map<String, Integer> stringIndexes = Maps.newHashMap();
+
+	/**
+	 * Open addressing table of row + 1, 0 for an empty slot.
+	 */
+	private int[] idTable;
+
+	private int size;
+
+	private int rowsWithoutLineStats;
+
+	/**
+	 * Goes up whenever line statistics of a row change, so anything worked
+	 * out from them can tell it is out of date.
+	 */
+	private int statsVersion;
+
+	/**
+	 * Goes up whenever statistics a row had are cleared.
+	 */
+	private int clearedVersion;
+
+	/**
+	 * Rows that had their line statistics filled in, in the order they were,
+	 * so totals summed up before only need patching from those rows on.
+	 */
+	private int[] filledRows = new int[INITIAL_CAPACITY];
+
+	private int filledCount;
+
+	private LineStatsLoader loader;
+
+	CommitStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	CommitStore(final int capacity) {
+
+		timestamps = new long[capacity];
+		additions = new int[capacity];
+		deletions = new int[capacity];
+		changedFiles = new int[capacity];
+		flags = new byte[capacity];
+		idKinds = new byte[capacity];
+		ids = new byte[capacity * ID_LENGTH];
+		committers = new int[capacity];
+		messageEnds = new int[capacity];
+		idTable = new int[Integer.highestOneBit(Math.max(capacity, 1) * 2) * 2];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a row.
+	 *
+	 * @return the new row
+	 */
+	int add(final String id, final long timestamp, final int changedFiles, final int additions, final int deletions,
+			final boolean isMergeCommit, final String message, final String committer) {
+
+		if (size == timestamps.length) {
+			grow();
+		}
+
+		final int row = size;
+
+		this.timestamps[row] = timestamp;
+		this.additions[row] = additions;
+		this.deletions[row] = deletions;
+		this.changedFiles[row] = changedFiles;
+		this.flags[row] = isMergeCommit ? FLAG_MERGE : 0;
+		this.committers[row] = committer == null ? NONE : intern(committer);
+
+		idKinds[row] = pack(id, ids, row * ID_LENGTH, true);
+
+		final byte[] bytes = message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+		final int start = row > 0 ? messageEnds[row - 1] : 0;
+
+		if (start + bytes.length > messages.length) {
+			messages = Arrays.copyOf(messages, Math.max(start + bytes.length, messages.length * 2));
+		}
+
+		System.arraycopy(bytes, 0, messages, start, bytes.length);
+		messageEnds[row] = start + bytes.length;
+
+		size++;
+		index(row);
+		return row;
+	}
+
+	/**
+	 * Copies a commit in as a new row.
+	 *
+	 * @return the new row
+	 */
+	int add(final Commit commit) {
+
+		final int row = add(commit.getId(), commit.getTime(), commit.getChangedFiles(), commit.getAdditions(),
+				commit.getDeletions(), commit.isMergeCommit(), commit.getMessage(), commit.getCommitter());
+
+		// A new row is in no totals yet, so this is not a change to them
+		if (!commit.hasLineStats()) {
+			additions[row] = 0;
+			deletions[row] = 0;
+			changedFiles[row] = 0;
+			flags[row] |= FLAG_NO_LINE_STATS;
+			rowsWithoutLineStats++;
+		} else if (commit.hasSkippedFiles()) {
+			markSkippedFiles(row);
+		}
+
+		return row;
+	}
+
+	/**
+	 * Finds a commit by id.
+	 *
+	 * @param id
+	 * @return the row, or -1 if there is no such commit
+	 */
+	int find(final String id) {
+
+		final byte[] packed = new byte[ID_LENGTH];
+		final byte kind = pack(id, packed, 0, false);
+
+		if (kind == NONE) { return NONE; }
+
+		final int mask = idTable.length - 1;
+
+		for (int slot = hash(kind, packed, 0) & mask; idTable[slot] != 0; slot = slot + 1 & mask) {
+
+			final int row = idTable[slot] - 1;
+
+			if (idKinds[row] == kind && equals(packed, row)) { return row; }
+
+		}
+
+		return NONE;
+	}
+
+	Commit get(final int row) {
+		return new Commit(this, row);
+	}
+
+	long getTime(final int row) {
+		return timestamps[row];
+	}
+
+	int getAdditions(final int row) {
+		return additions[row];
+	}
+
+	int getDeletions(final int row) {
+		return deletions[row];
+	}
+
+	int getChangedFiles(final int row) {
+		return changedFiles[row];
+	}
+
+	boolean isMergeCommit(final int row) {
+		return (flags[row] & FLAG_MERGE) != 0;
+	}
+
+	/**
+	 * @param row
+	 * @return false if the row's additions, deletions and changed files were
+	 *         never worked out
+	 */
+	boolean hasLineStats(final int row) {
+		return (flags[row] & FLAG_NO_LINE_STATS) == 0;
+	}
+
+	/**
+	 * Marks the row's line statistics as not computed.
+	 *
+	 * @param row
+	 */
+	void clearLineStats(final int row) {
+
+		if (hasLineStats(row)) {
+			rowsWithoutLineStats++;
+			clearedVersion++;
+		}
+
+		additions[row] = 0;
+		deletions[row] = 0;
+		changedFiles[row] = 0;
+		flags[row] = (byte) (flags[row] & ~FLAG_SKIPPED_FILES | FLAG_NO_LINE_STATS);
+		statsVersion++;
+	}
+
+	/**
+	 * Marks the line statistics of every row as not computed, such as when
+	 * they were counted over paths that are no longer counted.
+	 */
+	void clearLineStats() {
+		for (int row = 0; row < size; row++) {
+			clearLineStats(row);
+		}
+	}
+
+	/**
+	 * Marks the line statistics of every merge commit as not computed, such as
+	 * when merges are now diffed against other parents.
+	 */
+	void clearMergeLineStats() {
+		for (int row = 0; row < size; row++) {
+			if (isMergeCommit(row)) {
+				clearLineStats(row);
+			}
+		}
+	}
+
+	/**
+	 * Fills in line statistics that were not computed when the row was added.
+	 *
+	 * @param row
+	 * @param hasSkippedFiles
+	 *            if some of the changed files were not line diffed
+	 */
+	void setLineStats(final int row, final int additions, final int deletions, final int changedFiles,
+			final boolean hasSkippedFiles) {
+
+		if (!hasLineStats(row)) {
+
+			rowsWithoutLineStats--;
+
+			if (filledCount == filledRows.length) {
+				filledRows = Arrays.copyOf(filledRows, filledCount * 2);
+			}
+
+			filledRows[filledCount++] = row;
+
+		} else {
+			clearedVersion++;
+		}
+
+		this.additions[row] = additions;
+		this.deletions[row] = deletions;
+		this.changedFiles[row] = changedFiles;
+		flags[row] &= ~FLAG_NO_LINE_STATS;
+		statsVersion++;
+
+		if (hasSkippedFiles) {
+			markSkippedFiles(row);
+		}
+
+	}
+
+	int getStatsVersion() {
+		return statsVersion;
+	}
+
+	/**
+	 * @return how many times statistics a row already had were cleared or
+	 *         replaced
+	 */
+	int getClearedVersion() {
+		return clearedVersion;
+	}
+
+	/**
+	 * @return how many times a row without line statistics had them filled in
+	 */
+	int getFilledCount() {
+		return filledCount;
+	}
+
+	/**
+	 * @param index
+	 *            less than {@link #getFilledCount()}
+	 * @return the row filled in at that point
+	 */
+	int getFilledRow(final int index) {
+		return filledRows[index];
+	}
+
+	/**
+	 * Sets what works out line statistics that were not computed.
+	 *
+	 * @param loader
+	 *            the loader, or null to leave such rows without statistics
+	 */
+	synchronized void setLineStatsLoader(final LineStatsLoader loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * Works out the row's line statistics if they were not computed and there
+	 * is a loader.
+	 *
+	 * @param row
+	 */
+	synchronized void loadLineStats(final int row) {
+		if (loader != null && !hasLineStats(row)) {
+			loadLineStats(new int[] { row }, 0, 1);
+		}
+	}
+
+	/**
+	 * Works out the line statistics that were not computed for a range of
+	 * rows, all in one go.
+	 *
+	 * @param rows
+	 * @param from
+	 *            the first index in {@code rows}
+	 * @param to
+	 *            the index after the last
+	 */
+	synchronized void loadLineStats(final int[] rows, final int from, final int to) {
+
+		if (loader == null || rowsWithoutLineStats == 0) { return; }
+
+		final int[] missing = new int[to - from];
+		int count = 0;
+
+		for (int i = from; i < to; i++) {
+			if (!hasLineStats(rows[i])) {
+				missing[count++] = rows[i];
+			}
+		}
+
+		if (count == 0) { return; }
+
+		try {
+			loader.load(this, Arrays.copyOf(missing, count));
+		} catch (final IOException e) {
+			LOGGER.warn("Could not work out line statistics, leaving them out: " + e.getMessage());
+			LOGGER.debug("Error is", e);
+			loader = null;
+		}
+
+	}
+
+	/**
+	 * @param row
+	 * @return true if some of the row's changed files were counted without a
+	 *         line diff, for being binary or too large
+	 */
+	boolean hasSkippedFiles(final int row) {
+		return (flags[row] & FLAG_SKIPPED_FILES) != 0;
+	}
+
+	void markSkippedFiles(final int row) {
+		flags[row] |= FLAG_SKIPPED_FILES;
+	}
+
+	String getCommitter(final int row) {
+		return committers[row] == NONE ? null : strings.get(committers[row]);
+	}
+
+	String getMessage(final int row) {
+		final int start = row > 0 ? messageEnds[row - 1] : 0;
+		return new String(messages, start, messageEnds[row] - start, StandardCharsets.UTF_8);
+	}
+
+	void setCommitter(final int row, final String committer) {
+		committers[row] = committer == null ? NONE : intern(committer);
+	}
+
+	String getId(final int row) {
+
+		final int offset = row * ID_LENGTH;
+
+		switch (idKinds[row]) {
+		case ID_SHA:
+			final char[] hex = new char[ID_LENGTH * 2];
+
+			for (int i = 0; i < ID_LENGTH; i++) {
+				hex[i * 2] = Character.forDigit(ids[offset + i] >> 4 & 0xf, 16);
+				hex[i * 2 + 1] = Character.forDigit(ids[offset + i] & 0xf, 16);
+			}
+
+			return new String(hex);
+		case ID_NUMBER:
+			return Long.toString(readLong(offset));
+		default:
+			return strings.get((int) readLong(offset));
+		}
+
+	}
+
+	/**
+	 * Packs an id into 20 bytes.
+	 *
+	 * @param id
+	 * @param out
+	 * @param offset
+	 * @param intern
+	 *            if an id that can not be packed may be added to the string
+	 *            table
+	 * @return the kind of id, or -1 if the id is not in the string table and
+	 *         may not be added
+	 */
+	private byte pack(final String id, final byte[] out, final int offset, final boolean intern) {
+
+		if (isSha(id)) {
+
+			for (int i = 0; i < ID_LENGTH; i++) {
+				out[offset + i] = (byte) (Character.digit(id.charAt(i * 2), 16) << 4 | Character.digit(
+						id.charAt(i * 2 + 1), 16));
+			}
+
+			return ID_SHA;
+		}
+
+		final boolean isNumber = isNumber(id);
+		final long number;
+
+		if (isNumber) {
+			number = Long.parseLong(id);
+		} else {
+
+			final Integer index = intern ? Integer.valueOf(intern(id)) : stringIndexes.get(id);
+
+			if (index == null) { return NONE; }
+
+			number = index;
+		}
+
+		long value = number;
+
+		for (int i = 7; i >= 0; i--) {
+			out[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+
+		return isNumber ? ID_NUMBER : ID_STRING;
+	}
+
+	private boolean equals(final byte[] packed, final int row) {
+
+		final int offset = row * ID_LENGTH;
+
+		for (int i = 0; i < ID_LENGTH; i++) {
+			if (packed[i] != ids[offset + i]) { return false; }
+		}
+
+		return true;
+	}
+
+	private long readLong(final int offset) {
+
+		long value = 0;
+
+		for (int i = 0; i < 8; i++) {
+			value = value << 8 | ids[offset + i] & 0xff;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Only lower case ids can be packed, so they come back out the same.
+	 */
+	private static boolean isSha(final String id) {
+
+		if (id.length() != ID_LENGTH * 2) { return false; }
+
+		for (int i = 0; i < id.length(); i++) {
+			final char c = id.charAt(i);
+			if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) { return false; }
+		}
+
+		return true;
+	}
+
+	/**
+	 * Only numbers written the way {@link Long#toString(long)} would write
+	 * them can be packed.
+	 */
+	private static boolean isNumber(final String id) {
+
+		if (id.isEmpty() || id.length() > 18 || id.length() > 1 && id.charAt(0) == '0') { return false; }
+
+		for (int i = 0; i < id.length(); i++) {
+			if (id.charAt(i) < '0' || id.charAt(i) > '9') { return false; }
+		}
+
+		return true;
+	}
+
+	private int intern(final String value) {
+
+		Integer index = stringIndexes.get(value);
+
+		if (index == null) {
+			index = strings.size();
+			strings.add(value);
+			stringIndexes.put(value, index);
+		}
+
+		return index;
+	}
+
+	private void index(final int row) {
+
+		if (size * 2 > idTable.length) {
+
+			idTable = new int[idTable.length * 2];
+
+			for (int i = 0; i < size; i++) {
+				insert(i);
+			}
+
+		} else {
+			insert(row);
+		}
+
+	}
+
+	private void insert(final int row) {
+
+		final int mask = idTable.length - 1;
+		int slot = hash(idKinds[row], ids, row * ID_LENGTH) & mask;
+
+		while (idTable[slot] != 0) {
+			slot = slot + 1 & mask;
+		}
+
+		idTable[slot] = row + 1;
+	}
+
+	private static int hash(final byte kind, final byte[] packed, final int offset) {
+
+		int h = kind;
+
+		for (int i = 0; i < ID_LENGTH; i++) {
+			h = 31 * h + packed[offset + i];
+		}
+
+		return h ^ h >>> 16;
+	}
+
+	private void grow() {
+
+		final int capacity = Math.max(INITIAL_CAPACITY, timestamps.length * 2);
+
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		additions = Arrays.copyOf(additions, capacity);
+		deletions = Arrays.copyOf(deletions, capacity);
+		changedFiles = Arrays.copyOf(changedFiles, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		idKinds = Arrays.copyOf(idKinds, capacity);
+		ids = Arrays.copyOf(ids, capacity * ID_LENGTH);
+		committers = Arrays.copyOf(committers, capacity);
+		messageEnds = Arrays.copyOf(messageEnds, capacity);
+	}
+
+	/**
+	 * Works out line statistics for rows that do not have them.
+	 */
+	interface LineStatsLoader {
+
+		/**
+		 * Sets the line statistics of each row with
+		 * {@link CommitStore#setLineStats(int, int, int, int, boolean)}.
+		 *
+		 * @param store
+		 * @param rows
+		 * @throws IOException
+		 */
+		void load(CommitStore store, int[] rows) throws IOException;
+
+	}
+
+}
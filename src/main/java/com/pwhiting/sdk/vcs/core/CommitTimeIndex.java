@@ -0,0 +1,260 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+/**
+ * Rows of a {@link CommitStore} ordered by timestamp, so the newest commit at
+ * or before a date is found with a binary search instead of a pass over every
+ * commit.
+ * <p>
+ * Running totals of additions, deletions and changed files are kept alongside,
+ * so the totals over any date range come from two binary searches and a
+ * subtraction.
+ * <p>
+ * Commits without line statistics in the range are given to the store to work
+ * out before summing. When the store fills in statistics, the totals are only
+ * summed up again from the earliest of those commits on, so working out a
+ * recent range is cheap.
+ * <p>
+ * Commits are mostly logged oldest first, so they are appended as they come.
+ * Anything logged out of order, such as commits read back committer by
+ * committer, is put in order on the next lookup. Commits with the same
+ * timestamp keep the order they were logged in.
+ *
+ * @author phwhitin
+ *
+ */
+final class CommitTimeIndex {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final int ADDITIONS = 0;
+
+	private static final int DELETIONS = 1;
+
+	private static final int CHANGED_FILES = 2;
+
+	private final CommitStore store;
+
+	private int[] rows = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Totals of the commits before each index, so there is one more than
+	 * there are commits.
+	 */
+	private int[][] totals = new int[3][INITIAL_CAPACITY + 1];
+
+	private int size;
+
+	private boolean isSorted = true;
+
+	/**
+	 * How many rows the store had filled in when the totals were last summed.
+	 */
+	private int filledSeen;
+
+	/**
+	 * The store's cleared version when the totals were last summed.
+	 */
+	private int clearedSeen;
+
+	CommitTimeIndex(final CommitStore store) {
+		this.store = store;
+		filledSeen = store.getFilledCount();
+		clearedSeen = store.getClearedVersion();
+	}
+
+	/**
+	 * @param row
+	 *            the commit's row in the store
+	 */
+	synchronized void add(final int row) {
+
+		if (size == rows.length) {
+
+			rows = Arrays.copyOf(rows, size * 2);
+
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] = Arrays.copyOf(totals[i], size * 2 + 1);
+			}
+
+		}
+
+		if (size > 0 && store.getTime(row) < store.getTime(rows[size - 1])) {
+			isSorted = false;
+		}
+
+		rows[size] = row;
+
+		// Totals are worked out again when sorting
+		if (isSorted) {
+			addTotals(size);
+		}
+
+		size++;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the newest commit made at or before the date. Of several commits
+	 * with that timestamp, the last one logged is picked.
+	 *
+	 * @param date
+	 * @return the commit, or null if every commit is newer
+	 */
+	synchronized Commit getCommitAt(final Date date) {
+
+		sort();
+
+		final int index = indexAfter(date.getTime(), true);
+		return index > 0 ? store.get(rows[index - 1]) : null;
+	}
+
+	/**
+	 * Adds up the commits made within a date range.
+	 *
+	 * @param dateRange
+	 * @return the totals
+	 */
+	synchronized CommitTotals getTotals(final Range<Date> dateRange) {
+
+		sort();
+
+		final int from = dateRange.hasLowerBound() ? indexAfter(dateRange.lowerEndpoint().getTime(),
+				dateRange.lowerBoundType() == BoundType.OPEN) : 0;
+		final int to = Math.max(from, dateRange.hasUpperBound() ? indexAfter(dateRange.upperEndpoint().getTime(),
+				dateRange.upperBoundType() == BoundType.CLOSED) : size);
+
+		store.loadLineStats(rows, from, to);
+		refreshTotals();
+
+		return new CommitTotals(to - from, totals[ADDITIONS][to] - totals[ADDITIONS][from], totals[DELETIONS][to]
+				- totals[DELETIONS][from], totals[CHANGED_FILES][to] - totals[CHANGED_FILES][from]);
+	}
+
+	/**
+	 * Finds the first commit after a time.
+	 *
+	 * @param time
+	 * @param skipEqual
+	 *            if commits at exactly this time count as before it
+	 * @return the index, or the size if there is no such commit
+	 */
+	private int indexAfter(final long time, final boolean skipEqual) {
+
+		int low = 0;
+		int high = size;
+
+		while (low < high) {
+
+			final int mid = (low + high) >>> 1;
+			final long midTime = store.getTime(rows[mid]);
+
+			if (midTime < time || skipEqual && midTime == time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+
+		}
+
+		return low;
+	}
+
+	private void addTotals(final int index) {
+		totals[ADDITIONS][index + 1] = totals[ADDITIONS][index] + store.getAdditions(rows[index]);
+		totals[DELETIONS][index + 1] = totals[DELETIONS][index] + store.getDeletions(rows[index]);
+		totals[CHANGED_FILES][index + 1] = totals[CHANGED_FILES][index] + store.getChangedFiles(rows[index]);
+	}
+
+	private void sort() {
+
+		if (isSorted) { return; }
+
+		final Integer[] order = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+
+		// Stable, so equal timestamps stay in the order they were logged
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Long.compare(store.getTime(rows[a]), store.getTime(rows[b]));
+			}
+
+		});
+
+		final int[] sortedRows = new int[rows.length];
+
+		for (int i = 0; i < size; i++) {
+			sortedRows[i] = rows[order[i]];
+		}
+
+		rows = sortedRows;
+		sumTotals(0);
+		isSorted = true;
+	}
+
+	/**
+	 * Sums the totals up again from the earliest commit whose statistics
+	 * changed since they were last summed.
+	 */
+	private void refreshTotals() {
+
+		if (clearedSeen != store.getClearedVersion()) {
+			sumTotals(0);
+			return;
+		}
+
+		int dirtyFrom = size;
+
+		for (int i = filledSeen; i < store.getFilledCount(); i++) {
+			dirtyFrom = Math.min(dirtyFrom, indexOf(store.getFilledRow(i)));
+		}
+
+		filledSeen = store.getFilledCount();
+
+		if (dirtyFrom < size) {
+			sumTotals(dirtyFrom);
+		}
+
+	}
+
+	/**
+	 * @param row
+	 * @return the row's index, or the size if it is not in here
+	 */
+	private int indexOf(final int row) {
+
+		final long time = store.getTime(row);
+
+		for (int i = indexAfter(time, false); i < size && store.getTime(rows[i]) == time; i++) {
+			if (rows[i] == row) { return i; }
+		}
+
+		return size;
+	}
+
+	private void sumTotals(final int from) {
+
+		filledSeen = store.getFilledCount();
+		clearedSeen = store.getClearedVersion();
+
+		for (int i = from; i < size; i++) {
+			addTotals(i);
+		}
+
+	}
+
+}
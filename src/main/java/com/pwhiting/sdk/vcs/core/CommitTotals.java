@@ -0,0 +1,54 @@
+package com.pwhiting.sdk.vcs.core;
+
+/**
+ * What a group of commits adds up to.
+ *
+ * @author phwhitin
+ *
+ */
+public class CommitTotals {
+
+	private final int commitCount;
+
+	private final int additions;
+
+	private final int deletions;
+
+	private final int changedFiles;
+
+	CommitTotals(final int commitCount, final int additions, final int deletions, final int changedFiles) {
+		this.commitCount = commitCount;
+		this.additions = additions;
+		this.deletions = deletions;
+		this.changedFiles = changedFiles;
+	}
+
+	public int getCommitCount() {
+		return commitCount;
+	}
+
+	public int getAdditions() {
+		return additions;
+	}
+
+	public int getDeletions() {
+		return deletions;
+	}
+
+	/**
+	 * Files changed, summed over the commits, so a file changed by two
+	 * commits counts twice.
+	 *
+	 * @return
+	 */
+	public int getChangedFiles() {
+		return changedFiles;
+	}
+
+	@Override
+	public String toString() {
+		return "Commits: " + commitCount + ", Additions: " + additions + ", Deletions: " + deletions
+				+ ", Changed Files: " + changedFiles;
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.pwhiting.sdk.vcs.core;
 
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -9,7 +10,7 @@ import java.util.List;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.pwhiting.sdk.vcs.core.error.CommitNotFoundException;
-import com.pwhiting.util.DateLimitedDataContainer.RecursiveDateLimitedDataContainer;
+import com.pwhiting.util.TimestampedDataContainer;
 
 /**
  * Wrapper class used for author data pulled from the repository.
@@ -17,7 +18,7 @@ import com.pwhiting.util.DateLimitedDataContainer.RecursiveDateLimitedDataContai
  * @author phwhitin
  *
  */
-public class CommitterInfo extends RecursiveDateLimitedDataContainer<Commit> {
+public class CommitterInfo extends TimestampedDataContainer<Commit> {
 
 	private final String committer;
 	
@@ -27,52 +28,162 @@ public class CommitterInfo extends RecursiveDateLimitedDataContainer<Commit> {
 	
 	private final String authorEmail;
 
-	private int additions, deletions;
+	private final CommitStore store;
 
-	private int limitedAdditions, limitedDeletions;
+	private final CommitRowList rows;
 
-	CommitterInfo(final String name, final String email, final String author, final String authorEmail) {
-		this(name, email, author, authorEmail, 0, 0, new ArrayList<Commit>());
+	/**
+	 * The rows logged for the branch, shared by its committers.
+	 */
+	private final BitSet loggedRows;
+
+	private final CommitTimeIndex timeIndex;
+
+	/**
+	 * If this is a copy, which shares the store of the original.
+	 */
+	private final boolean isCopy;
+
+	/**
+	 * Totals of the range this is limited to, kept while neither the range
+	 * nor any statistics in the store change, so sorting committers by them
+	 * does not add them up on every comparison.
+	 */
+	private CommitTotals rangeTotals;
+
+	private Range<Date> totalsRange;
+
+	private int totalsVersion;
+
+	/**
+	 * @param store
+	 *            the repo's commit store
+	 * @param loggedRows
+	 *            the rows logged for the branch
+	 */
+	CommitterInfo(final CommitStore store, final BitSet loggedRows, final String name, final String email,
+			final String author, final String authorEmail) {
+		this(name, email, author, authorEmail, new CommitRowList(store), loggedRows, false);
 	}
 
-	CommitterInfo(final String committer, final String committerEmail, final String author, final String authorEmail, final int additions, final int deletions,
-			final List<Commit> commits) {
+	private CommitterInfo(final String committer, final String committerEmail, final String author,
+			final String authorEmail, final CommitRowList commits, final BitSet loggedRows, final boolean isCopy) {
 		super(commits);
 		this.committer = committer;
 		this.committerEmail = committerEmail;
 		this.author = author;
 		this.authorEmail = authorEmail;
-		this.additions = additions;
-		this.deletions = deletions;
+		this.loggedRows = loggedRows;
+		this.isCopy = isCopy;
+
+		store = commits.getStore();
+		rows = commits;
+		timeIndex = new CommitTimeIndex(store);
+
+		for (int i = 0; i < rows.size(); i++) {
+			timeIndex.add(rows.getRow(i));
+		}
 
 	}
 
+	/**
+	 * Adds the commit, unless one with the same id was already logged for the
+	 * branch. A commit is only ever made by one committer, so this is the same
+	 * as checking this committer's commits.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if this is a copy
+	 */
 	@Override
 	public boolean add(final Commit ac) {
+		return !addNew(Collections.singletonList(ac)).isEmpty();
+	}
+
+	/**
+	 * Adds the commits, skipping any with an id that was already logged for
+	 * the branch.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if this is a copy
+	 */
+	@Override
+	public boolean addAll(final Collection<? extends Commit> commits) {
+		return !addNew(commits).isEmpty();
+	}
+
+	/**
+	 * Adds the commits, skipping any with an id that was already logged for
+	 * the branch. A commit already in the repo's store, from another branch,
+	 * is shared rather than copied in again, and gets its line statistics
+	 * filled in if they were not computed before.
+	 *
+	 * @param commits
+	 * @return views of the commits that were added
+	 */
+	List<Commit> addNew(final Collection<? extends Commit> commits) {
+
+		if (isCopy) { throw new UnsupportedOperationException("Commits can not be added to a copy"); }
+
+		final List<Commit> added = Lists.newArrayListWithCapacity(commits.size());
+
+		for (final Commit commit : commits) {
+
+			int row = store.find(commit.getId());
+
+			if (row < 0) {
+				row = store.add(commit);
+			} else if (loggedRows.get(row)) {
+				continue;
+			} else if (!store.hasLineStats(row) && commit.hasLineStats()) {
+				store.setLineStats(row, commit.getAdditions(), commit.getDeletions(), commit.getChangedFiles(),
+						commit.hasSkippedFiles());
+			}
+
+			loggedRows.set(row);
+			added.add(store.get(row));
+			timeIndex.add(row);
 
-		for (final Commit a : data) {
-			if (a.getTimestamp().equals(ac.getTimestamp())) { return false; }
 		}
 
-		return super.add(ac);
+		super.addAll(added);
+		return added;
 	}
 
+	/**
+	 * Copies the committer. The copy shares the repo's commit store, so
+	 * commits can not be added to it.
+	 */
 	@Override
 	public CommitterInfo copy() {
-		final CommitterInfo theCopy = new CommitterInfo(committer, committerEmail, author, authorEmail, additions, deletions, data);
+		final CommitterInfo theCopy = new CommitterInfo(committer, committerEmail, author, authorEmail,
+				new CommitRowList(rows), loggedRows, true);
 		theCopy.limitToDateRange(getDateRange());
 		return theCopy;
 	}
 
+	/**
+	 * Gets the additions of the commits in the range this is limited to.
+	 *
+	 * @return
+	 */
 	public int getAdditions() {
-		return isLimited() ? limitedAdditions : additions;
+		return getRangeTotals().getAdditions();
+	}
+
+	/**
+	 * Gets every commit, ignoring any date limits.
+	 *
+	 * @return
+	 */
+	List<Commit> getAllCommits() {
+		return Collections.unmodifiableList(data);
 	}
 
 	public Commit getCommitById(final String id) {
 
-		for (final Commit ac : data) {
-			if (ac.getId().equals(id)) { return ac; }
-		}
+		final int row = store.find(id);
+
+		if (row >= 0 && rows.containsRow(row)) { return store.get(row); }
 
 		throw new CommitNotFoundException();
 	}
@@ -90,7 +201,10 @@ public class CommitterInfo extends RecursiveDateLimitedDataContainer<Commit> {
 	 */
 	public List<Commit> getCommits() {
 
-		final List<Commit> toUse = getData();
+		final List<Commit> toUse = Lists.newArrayList(getData());
+
+		// Statistics left for later are worked out together, not one by one
+		loadLineStats(toUse);
 
 		final Comparator<Commit> sorter = new Comparator<Commit>() {
 
@@ -104,11 +218,16 @@ public class CommitterInfo extends RecursiveDateLimitedDataContainer<Commit> {
 
 		Collections.sort(toUse, sorter);
 
-		return Lists.newArrayList(toUse);
+		return toUse;
 	}
 
+	/**
+	 * Gets the deletions of the commits in the range this is limited to.
+	 *
+	 * @return
+	 */
 	public int getDeletions() {
-		return isLimited() ? limitedDeletions : deletions;
+		return getRangeTotals().getDeletions();
 	}
 
 	public String getCommitterName() {
@@ -130,29 +249,57 @@ public class CommitterInfo extends RecursiveDateLimitedDataContainer<Commit> {
 	@Override
 	public CommitterInfo includeAll() {
 		super.includeAll();
-		limitedAdditions = 0;
-		limitedDeletions = 0;
-
 		return this;
 	}
 
-	void incrementAdditions(final int x) {
-		additions += x;
+	/**
+	 * Works out the totals of the range this is limited to, loading any
+	 * statistics left for later in one go.
+	 *
+	 * @return the totals
+	 */
+	CommitTotals getRangeTotals() {
+
+		final Range<Date> dateRange = getDateRange();
+
+		if (rangeTotals == null || !dateRange.equals(totalsRange) || totalsVersion != store.getStatsVersion()) {
+			loadLineStats(getData());
+			rangeTotals = getTotals(dateRange);
+			totalsRange = dateRange;
+			totalsVersion = store.getStatsVersion();
+		}
+
+		return rangeTotals;
 	}
 
-	void incrementDeletions(final int x) {
-		deletions += x;
+	/**
+	 * Loads the line statistics of the commits in the range this is limited
+	 * to, if any were left for later.
+	 */
+	void loadRangeLineStats() {
+		loadLineStats(getData());
 	}
 
-	@Override
-	public void limitToDateRange(final Range<Date> dateRange) {
-		includeAll();
-		super.limitToDateRange(dateRange);
+	private void loadLineStats(final List<Commit> commits) {
+
+		final int[] commitRows = new int[commits.size()];
 
-		for (final Commit ac : limitedData) {
-			limitedAdditions += ac.getAdditions();
-			limitedDeletions += ac.getDeletions();
+		for (int i = 0; i < commitRows.length; i++) {
+			commitRows[i] = commits.get(i).getRow();
 		}
+
+		store.loadLineStats(commitRows, 0, commitRows.length);
+	}
+
+	/**
+	 * Adds up the commits made within a date range, without changing the
+	 * range this is limited to.
+	 *
+	 * @param dateRange
+	 * @return the totals
+	 */
+	public CommitTotals getTotals(final Range<Date> dateRange) {
+		return timeIndex.getTotals(dateRange);
 	}
 
 	@Override
@@ -1,10 +1,12 @@
 package com.pwhiting.sdk.vcs.core;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
@@ -12,28 +14,34 @@ import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.TransportException;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.StopWalkException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.patch.FileHeader;
-import org.eclipse.jgit.patch.HunkHeader;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.AuthorRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 import com.pwhiting.sdk.vcs.core.error.BranchNotFoundException;
+import com.pwhiting.sdk.vcs.core.util.BlobDiffCache;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.sdk.vcs.core.util.StatsMode;
 import com.pwhiting.util.Util;
+import com.pwhiting.util.lang.ClocService;
 
 /**
  * Used to get information about different authors who have committed to a
@@ -52,12 +60,69 @@ public final class GitRepo extends Repo {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GitRepo.class.getSimpleName());
 
+	/**
+	 * How many walked commits are handed to the diff workers at once.
+	 */
+	private static final int DIFF_BATCH_SIZE = 1024;
+
+	/**
+	 * Kept in the repository's Git directory, as is the snapshot, so nothing
+	 * is written outside the directory this manages.
+	 */
+	private static final String BLOB_DIFF_CACHE_FILE = "vcs-analytics.blob-diffs";
+
+	private static final String SNAPSHOT_FILE = "vcs-analytics.snapshot";
+
+	private static final String CLOC_TREE_DIRECTORY = "vcs-analytics-cloc";
+
 	private final RepoInfo repoInfo = new RepoInfo();
 
 	Git theRepo;
 
 	private final UsernamePasswordCredentialsProvider cp;
 
+	private int diffThreads = Runtime.getRuntime().availableProcessors();
+
+	private long maxDiffBlobSize = LineDiffCounter.DEFAULT_MAX_BLOB_SIZE;
+
+	private StatsMode statsMode = StatsMode.FULL;
+
+	private MergeStrategy mergeStrategy = MergeStrategy.ALL_PARENTS;
+
+	private boolean isFirstParentWalk;
+
+	private Range<Date> walkDateRange = Range.all();
+
+	private String walkAuthor;
+
+	private BlobDiffCache blobDiffCache;
+
+	private RepoSnapshotStore snapshotStore;
+
+	/**
+	 * Diffs the commits of every branch a sync walks, so its threads and
+	 * workers are only made once per sync.
+	 */
+	private CommitDiffEngine syncEngine;
+
+	/**
+	 * The store's loader if statistics are worked out on demand, kept so its
+	 * engine can be closed when it is replaced.
+	 */
+	private LazyLineStatsLoader lazyLoader;
+
+	/**
+	 * The commit store's statistics version when the snapshot was last saved
+	 * or loaded.
+	 */
+	private int savedStatsVersion;
+
+	private TreeStatsCache treeStats = new TreeStatsCache();
+
+	private ClocTree clocTree;
+
+	private PathGlobFilter pathFilter = PathGlobFilter.ALL;
+
 	/**
 	 * Constructing like this assumes no authentication is required.
 	 * 
@@ -179,79 +244,17 @@ public final class GitRepo extends Repo {
 	 * is used incorrectly. :)
 	 */
 	public void close() {
-		theRepo.getRepository().close();
-	}
-
-	/**
-	 * Compares two commits.
-	 *
-	 *
-	 * @param prev
-	 * @param curr
-	 * @param df
-	 * @return array containing info - index reference: 0 = additions, 1 =
-	 *         deletions, 2 = files changed, 3 = totalChanges
-	 * @throws IOException
-	 */
-	private int[] compareCommits(final RevCommit prev, final RevCommit curr, final DiffFormatter df) throws IOException {
-
-		final ObjectReader reader = theRepo.getRepository().newObjectReader();
-
-		AbstractTreeIterator oldTreeIter = null;
-		if (prev == null) {
-
-			oldTreeIter = new EmptyTreeIterator();
-			((EmptyTreeIterator) oldTreeIter).reset();
-
-		} else {
-
-			oldTreeIter = new CanonicalTreeParser();
-			final ObjectId oldTree = prev.getTree();
-			((CanonicalTreeParser) oldTreeIter).reset(reader, oldTree);
+		closeLazyLoader();
 
+		// Keeps statistics worked out on demand since the last sync
+		if (repoInfo.getCommitStore().getStatsVersion() != savedStatsVersion) {
+			saveSnapshot();
 		}
 
-		AbstractTreeIterator newTreeIter = null;
-		if (curr == null) {
-
-			newTreeIter = new EmptyTreeIterator();
-			((EmptyTreeIterator) newTreeIter).reset();
-
-		} else {
-
-			newTreeIter = new CanonicalTreeParser();
-			final ObjectId newTree = curr.getTree();
-			((CanonicalTreeParser) newTreeIter).reset(reader, newTree);
-
+		if (blobDiffCache != null) {
+			blobDiffCache.flush();
 		}
-
-		df.setRepository(theRepo.getRepository());
-		final List<DiffEntry> entries = df.scan(oldTreeIter, newTreeIter);
-
-		int deletions = 0;
-		int additions = 0;
-		int changedFiles = 0;
-
-		for (final DiffEntry entry : entries) {
-
-			changedFiles++;
-			final FileHeader fh = df.toFileHeader(entry);
-
-			for (final HunkHeader hunk : fh.getHunks()) {
-
-				for (final Edit edit : hunk.toEditList()) {
-
-					final int deletionLines = edit.getEndA() - edit.getBeginA();
-					final int additionLines = edit.getEndB() - edit.getBeginB();
-
-					deletions += deletionLines;
-					additions += additionLines;
-
-				}
-			}
-		}
-
-		return new int[] { additions, deletions, changedFiles };
+		theRepo.getRepository().close();
 	}
 
 	/**
@@ -277,6 +280,8 @@ public final class GitRepo extends Repo {
 
 		LOGGER.info("Clone successful.");
 
+		loadSnapshot();
+
 		if (sync) {
 
 			syncValidateBranch(branch);
@@ -285,6 +290,22 @@ public final class GitRepo extends Repo {
 
 	}
 
+	/**
+	 * Gets the cache of blob pair line diffs. It is kept in the clone's Git
+	 * directory, where a checkout never touches it, and goes with the clone
+	 * if that is dropped.
+	 *
+	 * @return
+	 */
+	private BlobDiffCache getBlobDiffCache() {
+
+		if (blobDiffCache == null) {
+			blobDiffCache = new BlobDiffCache(new File(theRepo.getRepository().getDirectory(), BLOB_DIFF_CACHE_FILE));
+		}
+
+		return blobDiffCache;
+	}
+
 	/**
 	 * Returns a list of the branches in this repository.
 	 *
@@ -322,6 +343,212 @@ public final class GitRepo extends Repo {
 		return theDirectory;
 	}
 
+	/**
+	 * Sets how many threads are used to diff commits and count snapshot lines
+	 * during a sync. Results are the same regardless of the count, a count of
+	 * 1 does everything on the syncing thread.
+	 *
+	 * @param threads
+	 */
+	public void setDiffThreadCount(final int threads) {
+		diffThreads = Math.max(1, threads);
+		resetLineStatsLoader();
+	}
+
+	/**
+	 * Sets the size in bytes above which a file is counted as changed without
+	 * diffing its lines. Binary files are never line diffed. Commits already
+	 * logged keep what they were counted with.
+	 *
+	 * @param bytes
+	 * @see Commit#hasSkippedFiles()
+	 */
+	public void setMaxDiffBlobSize(final long bytes) {
+		maxDiffBlobSize = Math.max(0L, bytes);
+		resetLineStatsLoader();
+	}
+
+	/**
+	 * Sets how much is worked out about each commit during a sync. A
+	 * {@link StatsMode#METADATA_ONLY} sync only reads commit headers, which is
+	 * enough for commit counts and activity per author. A later
+	 * {@link StatsMode#FULL} sync rebuilds branches that are missing line
+	 * statistics.
+	 * <p>
+	 * A {@link StatsMode#LAZY} sync also only reads commit headers, and
+	 * commits are diffed the first time their statistics are asked for, the
+	 * commits of a date range all at once. Their statistics are then kept, and
+	 * saved with the rest of the repo. Commits from an earlier metadata only
+	 * sync are worked out the same way.
+	 *
+	 * @param statsMode
+	 */
+	public void setStatsMode(final StatsMode statsMode) {
+		this.statsMode = statsMode;
+		resetLineStatsLoader();
+	}
+
+	/**
+	 * Gives the store a new loader, so statistics are worked out with the
+	 * current settings.
+	 */
+	private void resetLineStatsLoader() {
+
+		closeLazyLoader();
+
+		if (statsMode == StatsMode.LAZY) {
+			lazyLoader = new LazyLineStatsLoader();
+			repoInfo.getCommitStore().setLineStatsLoader(lazyLoader);
+		}
+
+	}
+
+	private void closeLazyLoader() {
+
+		repoInfo.getCommitStore().setLineStatsLoader(null);
+
+		if (lazyLoader != null) {
+			lazyLoader.close();
+			lazyLoader = null;
+		}
+
+	}
+
+	/**
+	 * Sets which paths are counted, in commits and in language statistics.
+	 * The filter is handed to the tree walks and diffs, so the blobs of paths
+	 * that are not counted are never read.
+	 * <p>
+	 * If the paths differ from those the logged commits were counted over,
+	 * every branch is counted again on the next sync.
+	 *
+	 * @param filter
+	 */
+	public void setPathFilter(final PathGlobFilter filter) {
+
+		if (!filter.equals(pathFilter)) {
+			treeStats = new TreeStatsCache(filter);
+		}
+
+		pathFilter = filter;
+		repoInfo.setPathFilter(filter);
+		resetLineStatsLoader();
+	}
+
+	PathGlobFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * Sets which parents merge commits are diffed against. Diffing a merge
+	 * against every parent counts the merged branch's changes again, which
+	 * {@link MergeStrategy#FIRST_PARENT} and {@link MergeStrategy#SKIP_MERGES}
+	 * avoid.
+	 * <p>
+	 * If it differs from what the logged merges were diffed with, every branch
+	 * is logged again on the next sync, and only the merges are diffed again.
+	 *
+	 * @param strategy
+	 */
+	public void setMergeStrategy(final MergeStrategy strategy) {
+		mergeStrategy = strategy;
+		repoInfo.setMergeStrategy(strategy);
+		resetLineStatsLoader();
+	}
+
+	/**
+	 * Sets whether a sync only follows the first parent of each commit, as
+	 * {@code git log --first-parent} does, for metrics of the mainline alone.
+	 * Commits brought in by merges are then left out, and the merges that
+	 * brought them are diffed as the merge strategy says.
+	 * <p>
+	 * Changing this logs every branch again on the next sync.
+	 *
+	 * @param firstParent
+	 */
+	public void setFirstParentWalk(final boolean firstParent) {
+		isFirstParentWalk = firstParent;
+		repoInfo.setFirstParentWalk(firstParent);
+	}
+
+	/**
+	 * Limits the commits a sync walks. The limits are handed to the commit
+	 * walk itself, so commits outside them are never parsed or diffed, and a
+	 * walk limited to recent dates stops once it reaches older commits.
+	 * <p>
+	 * As with {@code git log --since}, reaching a commit made before the range
+	 * ends the walk, so a commit behind it with a skewed clock is not read.
+	 * <p>
+	 * A limited sync does not move a branch's last logged commit, so the next
+	 * unlimited sync still logs everything that was skipped.
+	 *
+	 * @param dateRange
+	 *            when commits must have been made, {@link Range#all()} for any
+	 *            time
+	 * @param author
+	 *            part of the author's name or email, or null for any author
+	 */
+	public void setWalkLimits(final Range<Date> dateRange, final String author) {
+		walkDateRange = dateRange;
+		walkAuthor = author;
+	}
+
+	private boolean isWalkLimited() {
+		return !walkDateRange.equals(Range.<Date> all()) || walkAuthor != null;
+	}
+
+	/**
+	 * Turns the walk limits into a filter for {@link RevWalk}. JGit compares
+	 * commit times in seconds, so the bounds are widened to whole seconds and
+	 * the exact range is checked again on each commit walked.
+	 *
+	 * @return
+	 */
+	private RevFilter getWalkFilter() {
+
+		final List<RevFilter> filters = Lists.newArrayList();
+
+		if (walkDateRange.hasLowerBound()) {
+			filters.add(CommitTimeRevFilter.after(walkDateRange.lowerEndpoint()));
+		}
+
+		if (walkDateRange.hasUpperBound()) {
+			filters.add(CommitTimeRevFilter.before(new Date(walkDateRange.upperEndpoint().getTime() + 999)));
+		}
+
+		if (walkAuthor != null) {
+			filters.add(AuthorRevFilter.create(walkAuthor));
+		}
+
+		if (filters.isEmpty()) { return RevFilter.ALL; }
+
+		return filters.size() == 1 ? filters.get(0) : AndRevFilter.create(filters);
+	}
+
+	int getDiffThreadCount() {
+		return diffThreads;
+	}
+
+	TreeStatsCache getTreeStats() {
+		return treeStats;
+	}
+
+	/**
+	 * Gets the directory trees are written to for cloc. It is kept in the
+	 * clone's Git directory, with the blob diff cache.
+	 *
+	 * @return
+	 */
+	synchronized ClocTree getClocTree() {
+
+		if (clocTree == null) {
+			clocTree = new ClocTree(theRepo.getRepository(), new File(theRepo.getRepository().getDirectory(),
+					CLOC_TREE_DIRECTORY));
+		}
+
+		return clocTree;
+	}
+
 	private File getDirectory(final String url, final File alternate) {
 
 		if (alternate != null && alternate.exists() && alternate.isDirectory()) { return alternate; }
@@ -340,14 +567,11 @@ public final class GitRepo extends Repo {
 	private RevCommit getNewestCommit(final String branch) {
 
 		RevCommit newest = null;
-		try {
 
-			theRepo.checkout().setName("origin/" + BranchInfo.branchTrimmer(branch))
-					.setCreateBranch(false).call();
-			final RevWalk rw = new RevWalk(theRepo.getRepository());
-			newest = rw.parseCommit(theRepo.getRepository().resolve(Constants.HEAD));
-			rw.dispose();
-			rw.close();
+		try (RevWalk rw = new RevWalk(theRepo.getRepository())) {
+
+			newest = rw.parseCommit(theRepo.getRepository().resolve(
+					Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + BranchInfo.branchTrimmer(branch)));
 
 		} catch (Exception e) {
 			LOGGER.error("Could not get most recent commit", e);
@@ -380,12 +604,23 @@ public final class GitRepo extends Repo {
 
 		LOGGER.info("Found cached version of " + repoInfo.getName());
 
+		loadSnapshot();
+
 		if (value) {
 			syncValidateBranch(branch);
 		}
 
 	}
 
+	/**
+	 * Reads the snapshot kept in the clone's Git directory, if there is one.
+	 */
+	private void loadSnapshot() {
+		snapshotStore = new RepoSnapshotStore(new File(theRepo.getRepository().getDirectory(), SNAPSHOT_FILE));
+		snapshotStore.load(repoInfo);
+		savedStatsVersion = repoInfo.getCommitStore().getStatsVersion();
+	}
+
 	private void removeDefunctDirectory(final File dir) {
 
 		try {
@@ -410,7 +645,9 @@ public final class GitRepo extends Repo {
 	}
 
 	/**
-	 * Synchronizes with remote.
+	 * Synchronizes with remote. The remote is listed and fetched once, and
+	 * only branches that moved or are behind their remote head are walked
+	 * again.
 	 *
 	 * @param generateStatistics
 	 *            whether or not statistics should be generated or updated
@@ -418,14 +655,27 @@ public final class GitRepo extends Repo {
 	 */
 	public void sync(final boolean generateStatistics, final boolean useCloc) {
 
-		for (final String branch : getBranches()) {
+		final List<String> branches = getBranches();
+		final Set<String> moved = fetch();
+
+		if (moved != null) {
+
+			syncEngine = newDiffEngine();
+
 			try {
-				sync(branch, generateStatistics, useCloc);
-			} catch (final GitAPIException e) {
-				LOGGER.error("An error occured in synchronizing data", e);
+				for (final String branch : branches) {
+					syncBranch(branch, moved, generateStatistics, useCloc);
+				}
+			} finally {
+				closeSyncEngine();
 			}
+
+			repoInfo.resolveBranchInfo(branches);
+
 		}
 
+		saveSnapshot();
+
 	}
 
 	/**
@@ -454,37 +704,111 @@ public final class GitRepo extends Repo {
 			return;
 		}
 
+		final List<String> branches = getBranches();
 		final String branchResolved = BranchInfo.branchNameResolver(branch);
 
-		if (!getBranches().contains(branchResolved)) { throw new BranchNotFoundException("Branch "
-				+ branch + " does not exist."); }
+		if (!branches.contains(branchResolved)) { throw new BranchNotFoundException("Branch " + branch
+				+ " does not exist."); }
 
-		LOGGER.info(repoInfo.getName() + ": Syncing data for branch "
-				+ BranchInfo.branchTrimmer(branch));
+		final Set<String> moved = fetch();
 
-		final DiffFormatter df = new DiffFormatter(new ByteArrayOutputStream());
+		if (moved != null) {
 
-		try {
+			syncEngine = newDiffEngine();
 
-			theRepo.checkout().setName("refs/remotes/origin/" + BranchInfo.branchTrimmer(branch))
-					.setCreateBranch(false).call();
+			try {
+				syncBranch(branchResolved, moved, generateStatistics, useCloc);
+			} finally {
+				closeSyncEngine();
+			}
+
+			repoInfo.resolveBranchInfo(branches);
 
-			final boolean flag = theRepo.fetch().setCredentialsProvider(cp)
-					.setRemoveDeletedRefs(true).call().getTrackingRefUpdates().isEmpty();
+		}
+
+		saveSnapshot();
 
-			if (!flag || generateStatistics) {
+	}
 
-				updateAuthorInfo(branchResolved, df);
-				updateRepoInfo(branchResolved, df, useCloc);
-				repoInfo.resolveBranchInfo(getBranches());
+	private void closeSyncEngine() {
+		syncEngine.close();
+		syncEngine = null;
+	}
+
+	/**
+	 * Fetches every branch from the remote.
+	 *
+	 * @return the branches the fetch moved, or null if the remote could not
+	 *         be reached
+	 */
+	private Set<String> fetch() {
 
+		final Set<String> moved = Sets.newHashSet();
+
+		try {
+
+			for (final TrackingRefUpdate update : theRepo.fetch().setCredentialsProvider(cp)
+					.setRemoveDeletedRefs(true).call().getTrackingRefUpdates()) {
+				moved.add(update.getRemoteName());
 			}
 
+		} catch (final GitAPIException e) {
+			LOGGER.info("There was an error in connection to remote, could not update info", e);
+			return null;
+		}
+
+		LOGGER.debug("{} branches moved since the last fetch", moved.size());
+		return moved;
+	}
+
+	/**
+	 * Does the work for {@link GitRepo#sync(String, boolean, boolean)} once the
+	 * remote has been listed and fetched, without saving a snapshot
+	 * afterwards.
+	 *
+	 * @param branch
+	 *            a branch on the remote, prefixed by "refs/heads/"
+	 * @param moved
+	 *            the branches the fetch moved
+	 */
+	private void syncBranch(final String branch, final Set<String> moved, final boolean generateStatistics,
+			final boolean useCloc) {
+
+		if (!moved.contains(branch) && !(generateStatistics && isBehind(branch, useCloc))) {
+			LOGGER.debug("{} is up to date", branch);
+			return;
+		}
+
+		LOGGER.info(repoInfo.getName() + ": Syncing data for branch "
+				+ BranchInfo.branchTrimmer(branch));
+
+		try {
+
+			updateAuthorInfo(branch);
+			updateRepoInfo(branch, useCloc);
+
 		} catch (final Exception e) {
 			LOGGER.info("There was an error in connection to remote, could not update info", e);
 		}
 
-		df.close();
+	}
+
+	/**
+	 * Checks if the data logged for a branch is behind its remote head, or
+	 * was gathered with a different line counter than asked for.
+	 *
+	 * @param branch
+	 * @param useCloc
+	 * @return
+	 */
+	private boolean isBehind(final String branch, final boolean useCloc) {
+
+		final BranchInfo bi = repoInfo.getBranchInfo(branch);
+		final RevCommit head = getNewestCommit(branch);
+
+		return head == null || !head.name().equals(bi.getMostRecentLoggedCommit())
+				|| bi.usesCLOCStats() != (useCloc && ClocService.canGetCLOCStats())
+				|| statsMode == StatsMode.FULL && bi.isMissingLineStats();
 	}
 
 	/**
@@ -503,27 +827,274 @@ public final class GitRepo extends Repo {
 
 	}
 
-	private void updateAuthorInfo(final String branch, final DiffFormatter df) throws GitAPIException, IOException {
+	private void updateAuthorInfo(final String branch) throws GitAPIException, IOException {
 
 		final BranchInfo bi = repoInfo.getBranchInfo(branch);
 
 		LOGGER.info(repoInfo.getName() + ": Updating statistics for branch " + bi.getBranchName());
 
+		if (statsMode == StatsMode.FULL && bi.isMissingLineStats()) {
+			LOGGER.info(repoInfo.getName() + ": " + bi.getBranchName()
+					+ " was synced without line statistics, rebuilding it");
+			bi.clearAuthorInfo();
+		}
+
 		final RevWalk walk = new RevWalk(theRepo.getRepository());
-		final ObjectId from = theRepo.getRepository().resolve(Constants.HEAD);
+		final ObjectId from = theRepo.getRepository().resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME
+				+ "/" + bi.getBranchName());
 		walk.sort(RevSort.REVERSE);
 
+		final RevCommit head = walk.parseCommit(from);
+		RevCommit logged = null;
+
 		if (bi.getMostRecentLoggedCommit() != null) {
+
 			final ObjectId to = theRepo.getRepository().resolve(bi.getMostRecentLoggedCommit());
-			walk.markUninteresting(walk.parseCommit(to));
+			RevCommit previous = null;
+
+			// The id resolves even if a rewrite and gc or a fresh clone left
+			// no such object
+			if (to != null && theRepo.getRepository().hasObject(to)) {
+
+				try {
+					previous = walk.parseCommit(to);
+				} catch (final IncorrectObjectTypeException e) {
+					LOGGER.debug("{} is no longer a commit", to.name());
+				}
+
+			}
+
+			if (previous != null && walk.isMergedInto(previous, head)) {
+				walk.reset();
+				logged = previous;
+			} else {
+				LOGGER.info(repoInfo.getName() + ": History of " + bi.getBranchName()
+						+ " was rewritten since the last sync, rebuilding it");
+				walk.reset();
+				bi.clearAuthorInfo();
+			}
 
 		}
 
-		walk.markStart(walk.parseCommit(from));
+		walk.setRevFilter(getWalkFilter());
+
+		final Iterable<RevCommit> commits;
+
+		if (isFirstParentWalk) {
+
+			List<RevCommit> line = getFirstParents(walk, head, logged);
+
+			if (line == null) {
+				LOGGER.info(repoInfo.getName() + ": The last logged commit of " + bi.getBranchName()
+						+ " is no longer on its first parent line, rebuilding it");
+				bi.clearAuthorInfo();
+				line = getFirstParents(walk, head, null);
+			}
+
+			commits = line;
+
+		} else {
+
+			if (logged != null) {
+				walk.markUninteresting(logged);
+			}
+
+			walk.markStart(head);
+			commits = walk;
+		}
+
+		final CommitDiffEngine engine = syncEngine;
+		final List<RevCommit> batch = Lists.newArrayListWithCapacity(DIFF_BATCH_SIZE);
 
 		RevCommit prev = null;
 
-		for (final RevCommit rc : walk) {
+		for (final RevCommit rc : commits) {
+
+			if (!walkDateRange.contains(rc.getCommitterIdent().getWhen())) {
+				continue;
+			}
+
+			if (statsMode == StatsMode.FULL) {
+				parseParents(walk, rc);
+			}
+
+			batch.add(rc);
+
+			if (batch.size() == DIFF_BATCH_SIZE) {
+				logBatch(bi, engine, batch);
+				batch.clear();
+			}
+
+			prev = rc;
+		}
+
+		logBatch(bi, engine, batch);
+
+		if (prev != null && !isWalkLimited()) {
+			bi.setMostRecentCommit(prev.getId().name());
+		}
+
+		walk.close();
+		walk.dispose();
+
+	}
+
+	/**
+	 * Follows first parents back from the head until the last logged commit.
+	 * The walk's filter is applied to each commit, and a date limit ends the
+	 * walk the same way it would a normal one.
+	 *
+	 * @param walk
+	 * @param head
+	 * @param logged
+	 *            the last logged commit, or null to follow the whole line
+	 * @return the commits, oldest first, or null if the last logged commit is
+	 *         not a first parent, such as after a fast forward to a merge of
+	 *         the branch
+	 * @throws IOException
+	 */
+	private static List<RevCommit> getFirstParents(final RevWalk walk, final RevCommit head, final RevCommit logged)
+			throws IOException {
+
+		final List<RevCommit> commits = Lists.newArrayList();
+		final RevFilter filter = walk.getRevFilter();
+		boolean isFiltering = true;
+
+		for (RevCommit rc = head; rc != null; rc = rc.getParentCount() > 0 ? rc.getParent(0) : null) {
+
+			if (rc.equals(logged)) { return Lists.reverse(commits); }
+
+			walk.parseHeaders(rc);
+
+			try {
+
+				if (isFiltering && filter.include(walk, rc)) {
+					commits.add(rc);
+				}
+
+			} catch (final StopWalkException e) {
+
+				// Everything further back is older than the date limit, so
+				// only the last logged commit is still looked for
+				if (logged == null) {
+					break;
+				}
+
+				isFiltering = false;
+			}
+
+		}
+
+		return logged == null ? Lists.reverse(commits) : null;
+	}
+
+	private void saveSnapshot() {
+		snapshotStore.save(repoInfo);
+		savedStatsVersion = repoInfo.getCommitStore().getStatsVersion();
+	}
+
+	private CommitDiffEngine newDiffEngine() {
+		return new CommitDiffEngine(theRepo.getRepository(), getBlobDiffCache(), diffThreads, pathFilter,
+				maxDiffBlobSize, mergeStrategy);
+	}
+
+	/**
+	 * Parses the headers of the parents the commit is diffed against.
+	 */
+	private void parseParents(final RevWalk walk, final RevCommit rc) throws IOException {
+
+		final int parents = CommitDiffEngine.getParentsToDiff(rc, mergeStrategy);
+
+		for (int i = 0; i < parents; i++) {
+			walk.parseHeaders(rc.getParent(i));
+		}
+
+	}
+
+	/**
+	 * Logs a batch of walked commits, diffing them unless line statistics are
+	 * left out or left for later.
+	 */
+	private void logBatch(final BranchInfo bi, final CommitDiffEngine engine, final List<RevCommit> batch)
+			throws IOException {
+
+		if (statsMode != StatsMode.FULL) {
+
+			logCommits(bi, batch, null);
+
+			// The headers have been read, so the raw commits can go
+			for (final RevCommit rc : batch) {
+				rc.disposeBody();
+			}
+
+		} else {
+			logCommits(bi, batch, compare(engine, batch));
+			getBlobDiffCache().flush();
+		}
+
+	}
+
+	/**
+	 * Diffs the commits that are not yet on any branch. Commits already logged
+	 * for another branch take their results from the repo's commit store, so
+	 * history shared by branches is only diffed once.
+	 *
+	 * @param engine
+	 * @param commits
+	 * @return the results in the form of {@link CommitDiffEngine#compare(List)}
+	 */
+	private List<int[]> compare(final CommitDiffEngine engine, final List<RevCommit> commits) throws IOException {
+
+		final CommitStore store = repoInfo.getCommitStore();
+		final int[] rows = new int[commits.size()];
+		final List<RevCommit> unknown = Lists.newArrayList();
+
+		for (int i = 0; i < commits.size(); i++) {
+
+			final int row = store.find(commits.get(i).name());
+
+			// Commits from a metadata only sync are diffed now
+			rows[i] = row >= 0 && store.hasLineStats(row) ? row : -1;
+
+			if (rows[i] < 0) {
+				unknown.add(commits.get(i));
+			}
+
+		}
+
+		if (unknown.size() < commits.size()) {
+			LOGGER.debug("{} of {} commits already diffed for another branch", commits.size() - unknown.size(),
+					commits.size());
+		}
+
+		final Iterator<int[]> diffed = engine.compare(unknown).iterator();
+		final List<int[]> results = Lists.newArrayListWithCapacity(commits.size());
+
+		for (final int row : rows) {
+			// Only whether files were skipped is kept, not how many
+			results.add(row < 0 ? diffed.next() : new int[] { store.getAdditions(row), store.getDeletions(row),
+					store.getChangedFiles(row), store.hasSkippedFiles(row) ? 1 : 0 });
+		}
+
+		return results;
+	}
+
+	/**
+	 * Records diffed commits with their committers, in walk order.
+	 *
+	 * @param bi
+	 * @param commits
+	 * @param results
+	 *            the results from {@link CommitDiffEngine#compare(List)} for
+	 *            {@code commits}, or null if the commits were not diffed
+	 */
+	private void logCommits(final BranchInfo bi, final List<RevCommit> commits, final List<int[]> results) {
+
+		final Map<CommitterInfo, List<Commit>> byCommitter = Maps.newLinkedHashMap();
+
+		for (int i = 0; i < commits.size(); i++) {
+
+			final RevCommit rc = commits.get(i);
 			final String committerEmail = rc.getCommitterIdent().getEmailAddress();
 			final String committer = rc.getCommitterIdent().getName();
 			final String authorEmail = rc.getAuthorIdent().getEmailAddress();
@@ -532,49 +1103,37 @@ public final class GitRepo extends Repo {
 			final CommitterInfo ai = bi.getAuthorInfo(committer, committerEmail, author, authorEmail);
 			final boolean isMergeCommit = rc.getParentCount() > 1;
 
-			int totalAdditions = 0;
-			int totalDeletions = 0;
-			int totalFilesAffected = 0;
-
-			if (rc.getParentCount() == 0) {
+			List<Commit> toAdd = byCommitter.get(ai);
 
-				final int[] results = compareCommits(null, rc, df);
-				totalAdditions += results[0];
-				totalDeletions += results[1];
-				totalFilesAffected += results[2];
+			if (toAdd == null) {
+				toAdd = Lists.newArrayList();
+				byCommitter.put(ai, toAdd);
+			}
 
+			if (results == null) {
+				toAdd.add(Commit.withoutLineStats(rc.name(), timestamp, isMergeCommit, rc.getShortMessage()));
 			} else {
+				final int[] result = results.get(i);
+				final Commit commit = new Commit(rc.name(), timestamp, result[2], result[0], result[1], isMergeCommit,
+						rc.getShortMessage());
 
-				for (final RevCommit rev : rc.getParents()) {
-
-					final int[] results = compareCommits(rev, rc, df);
-					totalAdditions += results[0];
-					totalDeletions += results[1];
-					totalFilesAffected += results[2];
-
+				if (result[3] > 0) {
+					commit.markSkippedFiles();
 				}
 
+				toAdd.add(commit);
 			}
 
-			ai.incrementAdditions(totalAdditions);
-			ai.incrementDeletions(totalDeletions);
-			ai.add(new Commit(rc.name(), timestamp, totalFilesAffected, totalAdditions, totalDeletions, isMergeCommit, rc
-					.getShortMessage()));
-
-			prev = rc;
 		}
 
-		if (prev != null) {
-			bi.setMostRecentCommit(prev.getId().name());
+		for (final Map.Entry<CommitterInfo, List<Commit>> entry : byCommitter.entrySet()) {
+			bi.addCommits(entry.getKey(), entry.getValue());
 		}
 
-		walk.close();
-		walk.dispose();
-
 	}
 
-	private void updateRepoInfo(final String branch, final DiffFormatter df, final boolean useCloc) throws IOException {
-		repoInfo.getBranchInfo(branch).getHistoryGit(getNewestCommit(branch), df, useCloc);
+	private void updateRepoInfo(final String branch, final boolean useCloc) throws IOException {
+		repoInfo.getBranchInfo(branch).getHistoryGit(getNewestCommit(branch), useCloc);
 	}
 
 	/**
@@ -591,4 +1150,72 @@ public final class GitRepo extends Repo {
 		return url.startsWith("http://") ? url.replace("http://", "https://") : url;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Diffs commits whose line statistics were left for later, once they are
+	 * asked for.
+	 */
+	private final class LazyLineStatsLoader implements CommitStore.LineStatsLoader {
+
+		/**
+		 * Made on the first load and kept for the life of the loader, which is
+		 * replaced when the settings it diffs with change. The store only
+		 * calls one load at a time.
+		 */
+		private CommitDiffEngine engine;
+
+		@Override
+		public void load(final CommitStore store, final int[] rows) throws IOException {
+
+			LOGGER.debug("{}: Working out line statistics of {} commits", repoInfo.getName(), rows.length);
+
+			if (engine == null) {
+				engine = newDiffEngine();
+			}
+
+			final List<RevCommit> batch = Lists.newArrayListWithCapacity(Math.min(rows.length, DIFF_BATCH_SIZE));
+
+			try (RevWalk walk = new RevWalk(theRepo.getRepository())) {
+
+				for (int start = 0; start < rows.length; start += DIFF_BATCH_SIZE) {
+
+					final int end = Math.min(rows.length, start + DIFF_BATCH_SIZE);
+					batch.clear();
+
+					for (int i = start; i < end; i++) {
+						final RevCommit rc = walk.parseCommit(ObjectId.fromString(store.getId(rows[i])));
+						parseParents(walk, rc);
+						batch.add(rc);
+					}
+
+					final List<int[]> results = engine.compare(batch);
+
+					for (int i = start; i < end; i++) {
+						final int[] result = results.get(i - start);
+						store.setLineStats(rows[i], result[0], result[1], result[2], result[3] > 0);
+					}
+
+				}
+
+			}
+
+			getBlobDiffCache().flush();
+		}
+
+		/**
+		 * Closes the engine. The store's lock is taken, so a load that is
+		 * running finishes first.
+		 */
+		void close() {
+
+			synchronized (repoInfo.getCommitStore()) {
+				if (engine != null) {
+					engine.close();
+					engine = null;
+				}
+			}
+
+		}
+
+	}
+
+}
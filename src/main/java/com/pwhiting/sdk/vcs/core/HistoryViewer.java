@@ -1,9 +1,12 @@
 package com.pwhiting.sdk.vcs.core;
 
 import java.util.Date;
+import java.util.Map;
 
+import com.pwhiting.sdk.vcs.core.TreeStatsCache.TreeStats;
 import com.pwhiting.util.Util;
 import com.pwhiting.util.lang.ClocData;
+import com.pwhiting.util.lang.ClocData.Header;
 import com.pwhiting.util.lang.ClocData.LangStats;
 import com.pwhiting.util.lang.CodeSniffer.Language;
 
@@ -125,6 +128,34 @@ public class HistoryViewer {
 		return count;
 	}
 
+	/**
+	 * Adds statistics worked out by builtin analysis to this snapshot.
+	 *
+	 * @param stats
+	 */
+	void addStatistics(final TreeStats stats) {
+
+		final Map<Language, LangStats> langStats = data.getLanguageStatsMutable();
+
+		for (final Map.Entry<Language, int[]> entry : stats.getLanguages().entrySet()) {
+
+			final Language lang = entry.getKey();
+
+			final LangStats langStat = Util.putIfAbsent(langStats, lang, new LangStats(lang));
+
+			langStat.setnFiles(langStat.getnFiles() + entry.getValue()[0]);
+			langStat.setCodeLines(langStat.getCodeLines() + entry.getValue()[1]);
+
+		}
+
+		incrementFileCount(stats.getFileCount());
+
+		final Header header = data.getHeader();
+		header.setnLines(header.getnLines() + stats.getLineCount());
+		incrementLineCount(stats.getLineCount());
+
+	}
+
 	void incrementFileCount(final int x) {
 		setFileCount(getFileCount() + x);
 	}
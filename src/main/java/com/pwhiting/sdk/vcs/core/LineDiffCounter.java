@@ -0,0 +1,182 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.Side;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import com.pwhiting.sdk.vcs.core.util.BlobDiffCache;
+
+/**
+ * Counts added and deleted lines for a {@link DiffEntry} by running the diff
+ * algorithm straight over the two blobs. Nothing is formatted, so there is no
+ * patch text or {@link org.eclipse.jgit.patch.FileHeader} to build.
+ * <p>
+ * The counts match what {@link org.eclipse.jgit.diff.DiffFormatter} would
+ * report: gitlinks, binary content and blobs over the size limit all count as
+ * zero lines. Results are remembered per blob pair in a {@link BlobDiffCache}
+ * when one is given, which is looked up first. On a miss, blob sizes are
+ * checked before anything is loaded, and a side found to be binary is not
+ * diffed, so large assets and generated files cost little more than a lookup.
+ * <p>
+ * Not thread safe, each thread needs its own counter.
+ *
+ * @author phwhitin
+ *
+ */
+final class LineDiffCounter {
+
+	/** The size in bytes above which blobs are not diffed, unless set */
+	static final long DEFAULT_MAX_BLOB_SIZE = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final ObjectReader reader;
+
+	private final DiffAlgorithm algorithm;
+
+	private final BlobDiffCache cache;
+
+	private final long maxBlobSize;
+
+	/**
+	 * @param repository
+	 * @param cache
+	 *            where results are looked up and remembered, may be null
+	 * @param maxBlobSize
+	 *            the size in bytes above which a blob is not diffed
+	 */
+	LineDiffCounter(final Repository repository, final BlobDiffCache cache, final long maxBlobSize) {
+		this.cache = cache;
+		this.maxBlobSize = maxBlobSize;
+		reader = repository.newObjectReader();
+		algorithm = DiffAlgorithm.getAlgorithm(repository.getConfig().getEnum(
+				ConfigConstants.CONFIG_DIFF_SECTION, null, ConfigConstants.CONFIG_KEY_ALGORITHM,
+				SupportedAlgorithm.HISTOGRAM));
+	}
+
+	/**
+	 * Adds the line changes for the entry to {@code totals}.
+	 *
+	 * @param entry
+	 * @param totals
+	 *            index reference: 0 = additions, 1 = deletions
+	 * @return false if the entry was not diffed, for being binary or too large
+	 * @throws IOException
+	 */
+	boolean count(final DiffEntry entry, final int[] totals) throws IOException {
+
+		if (entry.getOldMode() == FileMode.GITLINK || entry.getNewMode() == FileMode.GITLINK) { return true; }
+
+		final ObjectId oldId = entry.getOldId().toObjectId();
+		final ObjectId newId = entry.getNewId().toObjectId();
+
+		int[] lines = cache != null ? cache.get(oldId, newId) : null;
+
+		if (lines == null) {
+
+			// Skipped pairs are never cached, so sizes only matter on a miss
+			if (isTooLarge(entry, Side.OLD) || isTooLarge(entry, Side.NEW)) { return false; }
+
+			lines = count(entry);
+
+			if (lines == null) { return false; }
+
+			if (cache != null) {
+				cache.put(oldId, newId, lines[0], lines[1]);
+			}
+
+		}
+
+		totals[0] += lines[0];
+		totals[1] += lines[1];
+		return true;
+	}
+
+	/**
+	 * @return the lines, or null if either side is binary
+	 */
+	private int[] count(final DiffEntry entry) throws IOException {
+
+		final byte[] a = open(entry, Side.OLD);
+
+		// The new side is not loaded if there is no diffing the old one
+		if (a == null || RawText.isBinary(a)) { return null; }
+
+		final byte[] b = open(entry, Side.NEW);
+
+		return b == null ? null : countLines(algorithm, a, b);
+	}
+
+	/**
+	 * Counts the lines added and deleted going from one content to another.
+	 *
+	 * @param algorithm
+	 * @param a
+	 *            the old content
+	 * @param b
+	 *            the new content
+	 * @return array with index reference: 0 = additions, 1 = deletions, or
+	 *         null if either side is binary
+	 */
+	static int[] countLines(final DiffAlgorithm algorithm, final byte[] a, final byte[] b) {
+
+		if (RawText.isBinary(a) || RawText.isBinary(b)) { return null; }
+
+		final int[] lines = new int[2];
+
+		for (final Edit edit : algorithm.diff(RawTextComparator.DEFAULT, new RawText(a), new RawText(b))) {
+			lines[1] += edit.getEndA() - edit.getBeginA();
+			lines[0] += edit.getEndB() - edit.getBeginB();
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Checks the size of one side without loading it.
+	 */
+	private boolean isTooLarge(final DiffEntry entry, final Side side) throws IOException {
+		return entry.getMode(side).getObjectType() == Constants.OBJ_BLOB
+				&& reader.getObjectSize(entry.getId(side).toObjectId(), Constants.OBJ_BLOB) > maxBlobSize;
+	}
+
+	/**
+	 * Loads one side of the entry.
+	 *
+	 * @param entry
+	 * @param side
+	 * @return the content, or null if it is too large to diff
+	 * @throws IOException
+	 */
+	private byte[] open(final DiffEntry entry, final Side side) throws IOException {
+
+		if (entry.getMode(side).getObjectType() != Constants.OBJ_BLOB) { return EMPTY; }
+
+		try {
+			return reader.open(entry.getId(side).toObjectId(), Constants.OBJ_BLOB).getCachedBytes(
+					(int) Math.min(maxBlobSize, Integer.MAX_VALUE));
+		} catch (final LargeObjectException e) {
+			return null;
+		}
+
+	}
+
+	void close() {
+		reader.close();
+	}
+
+}
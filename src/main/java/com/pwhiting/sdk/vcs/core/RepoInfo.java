@@ -2,12 +2,15 @@ package com.pwhiting.sdk.vcs.core;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
 import com.google.common.collect.Maps;
 import com.pwhiting.sdk.vcs.core.error.BranchNotFoundException;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
 import com.pwhiting.util.Util;
 
 /**
@@ -24,6 +27,22 @@ public class RepoInfo {
 
 	private final Map<String, BranchInfo> branches = Maps.newHashMap();
 
+	/**
+	 * Commits of every branch, each stored once however many branches it is
+	 * on.
+	 */
+	private final CommitStore commitStore = new CommitStore();
+
+	/**
+	 * The {@link PathGlobFilter} the logged commits were counted with, as
+	 * text.
+	 */
+	private String pathFilter = PathGlobFilter.ALL.toString();
+
+	private MergeStrategy mergeStrategy = MergeStrategy.ALL_PARENTS;
+
+	private boolean isFirstParentWalk;
+
 	RepoInfo() {
 		this("Unknown");
 	}
@@ -69,7 +88,7 @@ public class RepoInfo {
 
 		if (!branches.containsKey(branch)) {
 
-			bi = new BranchInfo(branch, theRepo);
+			bi = new BranchInfo(branch, theRepo, commitStore);
 			branches.put(branch, bi);
 
 		} else {
@@ -109,6 +128,100 @@ public class RepoInfo {
 		return branches.values().toArray(new BranchInfo[branches.values().size()]);
 	}
 
+	CommitStore getCommitStore() {
+		return commitStore;
+	}
+
+	String getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * Changes the paths commits are counted over. If they differ from what the
+	 * logged commits were counted with, every branch is forgotten so the next
+	 * sync counts them again.
+	 *
+	 * @param filter
+	 */
+	void setPathFilter(final PathGlobFilter filter) {
+
+		if (filter.toString().equals(pathFilter)) { return; }
+
+		for (final BranchInfo bi : branches.values()) {
+			bi.clearAuthorInfo();
+		}
+
+		commitStore.clearLineStats();
+		pathFilter = filter.toString();
+	}
+
+	/**
+	 * Sets the path filter the logged commits were counted with, without
+	 * forgetting anything.
+	 *
+	 * @param pathFilter
+	 */
+	void restorePathFilter(final String pathFilter) {
+		this.pathFilter = pathFilter;
+	}
+
+	MergeStrategy getMergeStrategy() {
+		return mergeStrategy;
+	}
+
+	/**
+	 * Changes which parents merges are diffed against. If it differs from what
+	 * the logged merges were diffed with, every branch is forgotten and the
+	 * merges are diffed again on the next sync.
+	 *
+	 * @param strategy
+	 */
+	void setMergeStrategy(final MergeStrategy strategy) {
+
+		if (strategy == mergeStrategy) { return; }
+
+		for (final BranchInfo bi : branches.values()) {
+			bi.clearAuthorInfo();
+		}
+
+		commitStore.clearMergeLineStats();
+		mergeStrategy = strategy;
+	}
+
+	boolean isFirstParentWalk() {
+		return isFirstParentWalk;
+	}
+
+	/**
+	 * Changes whether branches only hold the commits on their first parent
+	 * line. If it differs from how the branches were walked, every branch is
+	 * forgotten so the next sync walks it again.
+	 *
+	 * @param firstParent
+	 */
+	void setFirstParentWalk(final boolean firstParent) {
+
+		if (firstParent == isFirstParentWalk) { return; }
+
+		for (final BranchInfo bi : branches.values()) {
+			bi.clearAuthorInfo();
+		}
+
+		isFirstParentWalk = firstParent;
+	}
+
+	/**
+	 * Sets how the logged commits were walked and diffed, without forgetting
+	 * anything.
+	 *
+	 * @param strategy
+	 * @param firstParent
+	 */
+	void restoreWalk(final MergeStrategy strategy, final boolean firstParent) {
+		mergeStrategy = strategy;
+		isFirstParentWalk = firstParent;
+	}
+
 	/**
 	 * Gets the repo name as guessed from the url
 	 *
@@ -118,6 +231,10 @@ public class RepoInfo {
 		return name;
 	}
 
+	void removeBranchInfo(final String branch) {
+		branches.remove(branch);
+	}
+
 	/**
 	 * Removes data for branches that no longer exist.
 	 *
@@ -125,10 +242,12 @@ public class RepoInfo {
 	 */
 	void resolveBranchInfo(final List<String> branches) {
 
-		for (final String branch : this.branches.keySet()) {
+		final Iterator<String> iter = this.branches.keySet().iterator();
+
+		while (iter.hasNext()) {
 
-			if (!branches.contains(branch)) {
-				this.branches.remove(branch);
+			if (!branches.contains(iter.next())) {
+				iter.remove();
 			}
 
 		}
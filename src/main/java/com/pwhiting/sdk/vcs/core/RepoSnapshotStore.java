@@ -0,0 +1,308 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.util.lang.ClocData;
+import com.pwhiting.util.lang.ClocData.Header;
+import com.pwhiting.util.lang.ClocData.LangStats;
+import com.pwhiting.util.lang.CodeSniffer.Language;
+
+/**
+ * Saves and restores everything a {@link RepoInfo} knows: branches, committers,
+ * commits, language data, the last commit logged for each branch, and the
+ * paths, merge strategy and walk the commits were counted with. With
+ * the last logged commit restored, a sync after a restart only walks what is
+ * new.
+ * <p>
+ * The snapshot is a gzipped binary file. If it is missing, unreadable, or
+ * from another version, it is ignored and the repo is rebuilt from scratch.
+ *
+ * @author phwhitin
+ *
+ */
+final class RepoSnapshotStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RepoSnapshotStore.class.getSimpleName());
+
+	private static final int MAGIC = 0x52534e50;
+
+	private static final int VERSION = 6;
+
+	private final File snapshotFile;
+
+	RepoSnapshotStore(final File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Fills {@code info} with the saved snapshot, if there is one.
+	 *
+	 * @param info
+	 * @return whether a snapshot was loaded
+	 */
+	boolean load(final RepoInfo info) {
+
+		if (!snapshotFile.exists()) { return false; }
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(
+				snapshotFile))))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOGGER.debug("Snapshot {} is from another version, ignoring it", snapshotFile);
+				return false;
+			}
+
+			info.restorePathFilter(readString(in));
+			info.restoreWalk(MergeStrategy.valueOf(readString(in)), in.readBoolean());
+
+			final int branchCount = in.readInt();
+
+			for (int i = 0; i < branchCount; i++) {
+				readBranch(in, info.getBranchInfo(readString(in)));
+			}
+
+			LOGGER.info("Restored {} branches from snapshot", branchCount);
+			return true;
+
+		} catch (final IOException | IllegalArgumentException e) {
+
+			LOGGER.warn("Snapshot {} could not be read, statistics will be rebuilt", snapshotFile);
+			LOGGER.debug("Error is", e);
+
+			for (final String branch : info.getBranches()) {
+				info.removeBranchInfo(branch);
+			}
+
+			return false;
+		}
+
+	}
+
+	/**
+	 * Writes the snapshot. The file is written to the side and moved into
+	 * place, so a failed save never leaves a half written snapshot.
+	 *
+	 * @param info
+	 */
+	void save(final RepoInfo info) {
+
+		final File temp = new File(snapshotFile.getPath() + ".tmp");
+
+		try {
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+					new FileOutputStream(temp))))) {
+
+				final BranchInfo[] branches = info.getBranchInfos();
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, info.getPathFilter());
+				writeString(out, info.getMergeStrategy().name());
+				out.writeBoolean(info.isFirstParentWalk());
+				out.writeInt(branches.length);
+
+				for (final BranchInfo bi : branches) {
+					writeString(out, bi.getBranch());
+					writeBranch(out, bi);
+				}
+
+			}
+
+			FileUtils.deleteQuietly(snapshotFile);
+			FileUtils.moveFile(temp, snapshotFile);
+			LOGGER.debug("Saved snapshot to {}", snapshotFile);
+
+		} catch (final IOException e) {
+			FileUtils.deleteQuietly(temp);
+			LOGGER.warn("Could not save snapshot to {}", snapshotFile);
+			LOGGER.debug("Error is", e);
+		}
+
+	}
+
+	private static void writeBranch(final DataOutputStream out, final BranchInfo bi) throws IOException {
+
+		writeString(out, bi.getMostRecentLoggedCommit());
+		out.writeLong(bi.theDate.getTime());
+		out.writeBoolean(bi.usesCLOCStats);
+		writeData(out, bi.getData());
+
+		final Collection<CommitterInfo> committers = bi.getCommitters();
+		out.writeInt(committers.size());
+
+		for (final CommitterInfo ci : committers) {
+
+			writeString(out, ci.getCommitterName());
+			writeString(out, ci.getCommitterEmail());
+			writeString(out, ci.getAuthor());
+			writeString(out, ci.getAuthorEmail());
+
+			final List<Commit> commits = ci.getAllCommits();
+			out.writeInt(commits.size());
+
+			// Read from the store, so statistics left to be worked out on
+			// demand are saved as they are
+			for (final Commit commit : commits) {
+
+				final CommitStore store = commit.getStore();
+				final int row = commit.getRow();
+
+				writeString(out, commit.getId());
+				out.writeLong(commit.getTimestamp().getTime());
+				out.writeInt(store.getChangedFiles(row));
+				out.writeInt(store.getAdditions(row));
+				out.writeInt(store.getDeletions(row));
+				out.writeBoolean(commit.isMergeCommit());
+				writeString(out, commit.getMessage());
+				writeString(out, commit.getCommitter());
+				out.writeBoolean(store.hasLineStats(row));
+				out.writeBoolean(store.hasSkippedFiles(row));
+			}
+
+		}
+
+	}
+
+	private static void readBranch(final DataInputStream in, final BranchInfo bi) throws IOException {
+
+		bi.setMostRecentCommit(readString(in));
+		bi.theDate = new Date(in.readLong());
+		bi.usesCLOCStats = in.readBoolean();
+		readData(in, bi.getData());
+
+		final int committerCount = in.readInt();
+
+		for (int i = 0; i < committerCount; i++) {
+
+			final String committer = readString(in);
+			final String committerEmail = readString(in);
+			final String author = readString(in);
+			final String authorEmail = readString(in);
+			final CommitterInfo ci = bi.getAuthorInfo(committer, committerEmail, author, authorEmail);
+
+			final int commitCount = in.readInt();
+			final List<Commit> commits = Lists.newArrayListWithCapacity(commitCount);
+
+			for (int j = 0; j < commitCount; j++) {
+
+				final Commit commit = new Commit(readString(in), new Date(in.readLong()), in.readInt(), in.readInt(),
+						in.readInt(), in.readBoolean(), readString(in));
+				commit.setCommitter(readString(in));
+
+				if (!in.readBoolean()) {
+					commit.clearLineStats();
+				}
+
+				if (in.readBoolean()) {
+					commit.markSkippedFiles();
+				}
+
+				commits.add(commit);
+
+			}
+
+			// Additions and deletions are summed up again from the commits
+			bi.addCommits(ci, commits);
+
+		}
+
+	}
+
+	private static void writeData(final DataOutputStream out, final ClocData data) throws IOException {
+
+		final Header header = data.getHeader();
+
+		writeString(out, header.getClocUrl());
+		writeString(out, header.getClocVersion());
+		out.writeDouble(header.getElapsedSeconds());
+		out.writeInt(header.getnFiles());
+		out.writeInt(header.getnLines());
+		out.writeFloat((float) header.getFilesPerSecond());
+		out.writeFloat((float) header.getLinesPerSecond());
+
+		final LangStats[] stats = data.getLanguageStats();
+		out.writeInt(stats.length);
+
+		for (final LangStats stat : stats) {
+			out.writeUTF(stat.getLanguage().name());
+			out.writeInt(stat.getnFiles());
+			out.writeInt(stat.getBlankLines());
+			out.writeInt(stat.getCommentLines());
+			out.writeInt(stat.getCodeLines());
+		}
+
+	}
+
+	private static void readData(final DataInputStream in, final ClocData data) throws IOException {
+
+		data.reset();
+
+		final Header header = data.getHeader();
+
+		header.setClocUrl(readString(in));
+		header.setClocVersion(readString(in));
+		header.setElapsedSeconds(in.readDouble());
+		header.setnFiles(in.readInt());
+		header.setnLines(in.readInt());
+		header.setFilesPerSecond(in.readFloat());
+		header.setLinesPerSecond(in.readFloat());
+
+		final int count = in.readInt();
+
+		for (int i = 0; i < count; i++) {
+
+			final LangStats stat = new LangStats(Language.valueOf(in.readUTF()));
+			stat.setnFiles(in.readInt());
+			stat.setBlankLines(in.readInt());
+			stat.setCommentLines(in.readInt());
+			stat.setCodeLines(in.readInt());
+			data.getLanguageStatsMutable().put(stat.getLanguage(), stat);
+
+		}
+
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+
+		final int length = in.readInt();
+
+		if (length < 0) { return null; }
+
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNDiffClient;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+import com.pwhiting.sdk.vcs.core.util.DiffStatOutputStream;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.util.OrderedWorkerPool;
+
+/**
+ * Works out the additions, deletions and changed files of SVN revisions by
+ * diffing each against the revision before it. Revisions are spread over a
+ * pool of workers, each with its own connections and authentication manager,
+ * and results come back in the order the revisions were given in. The thread
+ * count is also the most connections made to the server at once.
+ *
+ * @author phwhitin
+ *
+ */
+final class SVNDiffEngine extends OrderedWorkerPool<Long, int[]> {
+
+	private final SVNURL location;
+
+	private final String username;
+
+	private final String password;
+
+	private final PathGlobFilter filter;
+
+	/**
+	 * @param filter
+	 *            which files are counted. The server still sends the whole
+	 *            diff, the files that are not counted are skipped as it is
+	 *            read.
+	 */
+	SVNDiffEngine(final SVNURL location, final String username, final String password, final int threads,
+			final PathGlobFilter filter) {
+		super(threads);
+		this.location = location;
+		this.username = username;
+		this.password = password;
+		this.filter = filter;
+	}
+
+	/**
+	 * Compares each revision to the one before it.
+	 *
+	 * @param revisions
+	 * @return one array per revision - index reference: 0 = additions, 1 =
+	 *         deletions, 2 = files changed
+	 * @throws SVNException
+	 */
+	List<int[]> compare(final List<Long> revisions) throws SVNException {
+
+		try {
+			return process(revisions);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof SVNException) { throw (SVNException) e.getCause(); }
+			throw new SVNException(SVNErrorMessage.create(SVNErrorCode.UNKNOWN, "Could not compare revisions"), e
+					.getCause());
+		}
+	}
+
+	@Override
+	protected Worker<Long, int[]> newWorker() {
+		return new DiffWorker();
+	}
+
+	private final class DiffWorker implements Worker<Long, int[]> {
+
+		private final SVNClientManager clientManager = SVNClientManager.newInstance(null,
+				SVNWCUtil.createDefaultAuthenticationManager(username, password));
+
+		private final SVNDiffClient diffClient = clientManager.getDiffClient();
+
+		@Override
+		public int[] process(final Long revision) throws SVNException {
+
+			final SVNRevision rev1 = SVNRevision.create(revision - 1);
+			final DiffStatOutputStream stats = new DiffStatOutputStream(filter);
+
+			diffClient.doDiff(location, rev1, rev1, SVNRevision.create(revision), SVNDepth.INFINITY, true, stats);
+			stats.close();
+
+			return new int[] { stats.getAdditions(), stats.getDeletions(), stats.getChangedFiles() };
+		}
+
+		@Override
+		public void close() {
+			clientManager.dispose();
+		}
+
+	}
+
+}
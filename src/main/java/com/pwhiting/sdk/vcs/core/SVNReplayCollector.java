@@ -0,0 +1,475 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNCommitInfo;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.ISVNReplayHandler;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+
+/**
+ * Works out the additions, deletions and changed files of a whole range of SVN
+ * revisions from a single {@link SVNRepository#replayRange} request, instead
+ * of asking the server for a diff of every revision.
+ * <p>
+ * Text deltas only describe how to rebuild a file from its previous content,
+ * so a mirror of every file's latest content is kept on disk. Each delta is
+ * applied to the mirrored file, the old and new content are diffed locally,
+ * and the mirror is moved on to the new content. The mirror is kept between
+ * runs, together with the revision it is at, so later runs only replay what
+ * is new.
+ * <p>
+ * The counts are close to, but not always the same as, what a server diff
+ * would give:
+ * <ul>
+ * <li>A file the mirror has never seen is fetched from the server the first
+ * time it changes, which costs one extra request per file. This only happens
+ * when the mirror did not start at the first revision.</li>
+ * <li>A copied file counts as added, like it does in a diff. A copied
+ * directory only counts its files if the copy source is in the mirror at the
+ * previous revision, otherwise its files are fetched from the server when they
+ * first change.</li>
+ * <li>Deleting a file or directory counts the lines the mirror holds for it,
+ * and nothing if the mirror never saw it.</li>
+ * <li>Binary is decided by content rather than svn:mime-type, and binary files
+ * are not counted as changed files, just as a diff would not show them.</li>
+ * </ul>
+ *
+ * @author phwhitin
+ *
+ */
+final class SVNReplayCollector implements ISVNReplayHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SVNReplayCollector.class.getSimpleName());
+
+	private static final String REVISION_FILE_SUFFIX = ".rev";
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final File mirror;
+
+	private final File revisionFile;
+
+	private final SVNRepository fetcher;
+
+	private final String basePath;
+
+	private final DiffAlgorithm algorithm = DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM);
+
+	private final Map<Long, int[]> results = Maps.newHashMap();
+
+	private final PathGlobFilter filter;
+
+	/**
+	 * @param mirror
+	 *            directory the mirror is kept in
+	 * @param fetcher
+	 *            a session separate from the one replaying, used to fetch
+	 *            files the mirror is missing
+	 * @param filter
+	 *            which files are counted, every file is still mirrored
+	 * @throws SVNException
+	 */
+	SVNReplayCollector(final File mirror, final SVNRepository fetcher, final PathGlobFilter filter)
+			throws SVNException {
+		this.mirror = mirror;
+		this.fetcher = fetcher;
+		this.filter = filter;
+		revisionFile = new File(mirror.getParentFile(), mirror.getName() + REVISION_FILE_SUFFIX);
+		basePath = fetcher.getRepositoryPath("");
+	}
+
+	/**
+	 * The revision the mirror holds the content of.
+	 *
+	 * @return the revision, or -1 if there is no usable mirror
+	 */
+	long getMirrorRevision() {
+
+		try {
+			return mirror.isDirectory() ? Long.parseLong(FileUtils.readFileToString(revisionFile).trim()) : -1L;
+		} catch (final IOException | NumberFormatException e) {
+			LOGGER.trace("No usable mirror revision", e);
+			return -1L;
+		}
+
+	}
+
+	/**
+	 * Throws away the mirror so the next replay starts from nothing.
+	 */
+	void resetMirror() {
+		FileUtils.deleteQuietly(revisionFile);
+		FileUtils.deleteQuietly(mirror);
+	}
+
+	/**
+	 * What was counted for each replayed revision.
+	 *
+	 * @return map of revision to array with index reference: 0 = additions, 1
+	 *         = deletions, 2 = files changed
+	 */
+	Map<Long, int[]> getResults() {
+		return results;
+	}
+
+	@Override
+	public ISVNEditor handleStartRevision(final long revision, final SVNProperties revisionProperties)
+			throws SVNException {
+
+		// Until the revision is fully applied, the mirror is in between revisions
+		FileUtils.deleteQuietly(revisionFile);
+		return new MirrorEditor(revision);
+	}
+
+	@Override
+	public void handleEndRevision(final long revision, final SVNProperties revisionProperties, final ISVNEditor editor)
+			throws SVNException {
+
+		final MirrorEditor mirrorEditor = (MirrorEditor) editor;
+		mirrorEditor.countCopies();
+		results.put(revision, mirrorEditor.totals);
+
+		try {
+			FileUtils.writeStringToFile(revisionFile, Long.toString(revision));
+		} catch (final IOException e) {
+			throw error(e);
+		}
+
+	}
+
+	private File mirrorFile(final String path) {
+		final String relative = relativize(path);
+		return new File(mirror, relative != null ? relative : path.substring(1));
+	}
+
+	/**
+	 * Turns a path from the server into one relative to the session.
+	 *
+	 * @param path
+	 * @return the relative path, or null if the path is outside of the session
+	 */
+	private String relativize(final String path) {
+
+		if (!path.startsWith("/")) { return path; }
+
+		if (path.equals(basePath)) { return ""; }
+
+		if (basePath.equals("/")) { return path.substring(1); }
+
+		return path.startsWith(basePath + "/") ? path.substring(basePath.length() + 1) : null;
+	}
+
+	private boolean isCounted(final String path) {
+		final String relative = relativize(path);
+		return relative != null && filter.isIncluded(relative);
+	}
+
+	private boolean isCounted(final File mirrored) {
+		return filter.isIncluded(mirror.toPath().relativize(mirrored.toPath()).toString()
+				.replace(File.separatorChar, '/'));
+	}
+
+	private byte[] fetch(final String path, final long revision) throws SVNException {
+
+		LOGGER.debug("Fetching {} at revision {}, it is not in the mirror", path, revision);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		fetcher.getFile(path, revision, null, out);
+		return out.toByteArray();
+	}
+
+	private static byte[] read(final File file) throws SVNException {
+
+		try {
+			return FileUtils.readFileToByteArray(file);
+		} catch (final IOException e) {
+			throw error(e);
+		}
+
+	}
+
+	private static void write(final File file, final byte[] content) throws SVNException {
+
+		try {
+			FileUtils.writeByteArrayToFile(file, content);
+		} catch (final IOException e) {
+			throw error(e);
+		}
+
+	}
+
+	private static SVNException error(final IOException e) {
+		return new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR, e.getMessage()), e);
+	}
+
+	/**
+	 * Applies a single revision to the mirror and counts what changed.
+	 */
+	private final class MirrorEditor implements ISVNEditor {
+
+		private final long revision;
+
+		private final int[] totals = new int[3];
+
+		private final SVNDeltaProcessor processor = new SVNDeltaProcessor();
+
+		private final Map<String, byte[]> bases = Maps.newHashMap();
+
+		/**
+		 * Paths added as copies whose content has not been counted yet. Files
+		 * of a copied directory are counted at the end of the revision, so
+		 * one that is also changed in it is only counted once.
+		 */
+		private final Set<String> copies = Sets.newHashSet();
+
+		private ByteArrayOutputStream target;
+
+		MirrorEditor(final long revision) {
+			this.revision = revision;
+		}
+
+		@Override
+		public void targetRevision(final long revision) throws SVNException {
+		}
+
+		@Override
+		public void openRoot(final long revision) throws SVNException {
+		}
+
+		@Override
+		public void deleteEntry(final String path, final long revision) throws SVNException {
+
+			final File file = mirrorFile(path);
+
+			// A copy that is deleted again was never counted as added
+			if (file.isDirectory()) {
+				for (final File child : FileUtils.listFiles(file, null, true)) {
+					if (!copies.remove(childPath(path, file, child)) && isCounted(child)) {
+						countDeleted(child);
+					}
+				}
+			} else if (file.isFile() && !copies.remove(path) && isCounted(path)) {
+				countDeleted(file);
+			}
+
+			FileUtils.deleteQuietly(file);
+		}
+
+		/**
+		 * Counts the files of copied directories that were not changed after
+		 * being copied.
+		 */
+		void countCopies() throws SVNException {
+
+			for (final String path : copies) {
+				if (isCounted(path)) {
+					countAdded(read(mirrorFile(path)));
+				}
+			}
+
+			copies.clear();
+		}
+
+		private String childPath(final String path, final File dir, final File child) {
+			return path + "/" + dir.toPath().relativize(child.toPath()).toString().replace(File.separatorChar, '/');
+		}
+
+		private void countDeleted(final File file) throws SVNException {
+			count(EMPTY, read(file), 1);
+		}
+
+		private void countAdded(final byte[] content) {
+			count(EMPTY, content, 0);
+		}
+
+		/**
+		 * Adds the line changes between two contents to the totals.
+		 *
+		 * @param a
+		 * @param b
+		 * @param index
+		 *            where the lines go if only one side has content: 0 =
+		 *            additions, 1 = deletions
+		 */
+		private void count(final byte[] a, final byte[] b, final int index) {
+
+			final int[] lines = LineDiffCounter.countLines(algorithm, a, b);
+
+			if (lines != null) {
+				totals[index] += lines[0] + lines[1];
+				totals[2]++;
+			}
+
+		}
+
+		@Override
+		public void absentDir(final String path) throws SVNException {
+		}
+
+		@Override
+		public void absentFile(final String path) throws SVNException {
+		}
+
+		@Override
+		public void addDir(final String path, final String copyFromPath, final long copyFromRevision)
+				throws SVNException {
+
+			final File dir = mirrorFile(path);
+
+			if (copyFromPath != null && copyFromRevision == revision - 1) {
+
+				final String source = relativize(copyFromPath);
+
+				if (source != null && mirrorFile(source).isDirectory()) {
+
+					try {
+						FileUtils.copyDirectory(mirrorFile(source), dir);
+					} catch (final IOException e) {
+						throw error(e);
+					}
+
+					for (final File child : FileUtils.listFiles(dir, null, true)) {
+						copies.add(childPath(path, dir, child));
+					}
+
+				}
+
+			}
+
+			dir.mkdirs();
+		}
+
+		@Override
+		public void openDir(final String path, final long revision) throws SVNException {
+		}
+
+		@Override
+		public void changeDirProperty(final String name, final SVNPropertyValue value) throws SVNException {
+		}
+
+		@Override
+		public void closeDir() throws SVNException {
+		}
+
+		@Override
+		public void addFile(final String path, final String copyFromPath, final long copyFromRevision)
+				throws SVNException {
+
+			if (copyFromPath == null) {
+				bases.put(path, EMPTY);
+				return;
+			}
+
+			final String source = relativize(copyFromPath);
+			final File sourceFile = source != null ? mirrorFile(source) : null;
+
+			final byte[] base = sourceFile != null && copyFromRevision == revision - 1 && sourceFile.isFile() ? read(sourceFile)
+					: fetch(copyFromPath, copyFromRevision);
+
+			// A plain copy gets no text delta, so the mirror is filled in here
+			write(mirrorFile(path), base);
+			bases.put(path, base);
+			copies.add(path);
+		}
+
+		@Override
+		public void openFile(final String path, final long revision) throws SVNException {
+
+			final File file = mirrorFile(path);
+			bases.put(path, file.isFile() ? read(file) : fetch(path, this.revision - 1));
+		}
+
+		@Override
+		public void changeFileProperty(final String path, final String propertyName,
+				final SVNPropertyValue propertyValue) throws SVNException {
+		}
+
+		@Override
+		public void applyTextDelta(final String path, final String baseChecksum) throws SVNException {
+			target = new ByteArrayOutputStream();
+			processor.applyTextDelta(new ByteArrayInputStream(bases.get(path)), target, false);
+		}
+
+		@Override
+		public OutputStream textDeltaChunk(final String path, final SVNDiffWindow diffWindow) throws SVNException {
+			return processor.textDeltaChunk(diffWindow);
+		}
+
+		@Override
+		public void textDeltaEnd(final String path) throws SVNException {
+
+			processor.textDeltaEnd();
+
+			final byte[] content = target.toByteArray();
+			final byte[] base = bases.remove(path);
+
+			if (!isCounted(path)) {
+				copies.remove(path);
+			} else if (copies.remove(path)) {
+				countAdded(content);
+			} else {
+				final int[] lines = LineDiffCounter.countLines(algorithm, base, content);
+
+				if (lines != null) {
+					totals[0] += lines[0];
+					totals[1] += lines[1];
+					totals[2]++;
+				}
+			}
+
+			write(mirrorFile(path), content);
+			target = null;
+		}
+
+		@Override
+		public void closeFile(final String path, final String textChecksum) throws SVNException {
+
+			final byte[] base = bases.remove(path);
+
+			// A copy without changes never saw a text delta
+			if (copies.remove(path) && isCounted(path)) {
+				countAdded(base);
+			}
+
+			// Neither did an empty new file, which still has to be mirrored
+			if (base != null && !mirrorFile(path).isFile()) {
+				write(mirrorFile(path), base);
+			}
+
+		}
+
+		@Override
+		public SVNCommitInfo closeEdit() throws SVNException {
+			return null;
+		}
+
+		@Override
+		public void abortEdit() throws SVNException {
+		}
+
+	}
+
+}
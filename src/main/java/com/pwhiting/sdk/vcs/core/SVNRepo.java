@@ -1,10 +1,12 @@
 package com.pwhiting.sdk.vcs.core;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -18,12 +20,14 @@ import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.SVNClientManager;
-import org.tmatesoft.svn.core.wc.SVNDiffClient;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNUpdateClient;
 import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.pwhiting.sdk.vcs.core.util.CommitLogger;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
 import com.pwhiting.util.lang.ClocData;
 import com.pwhiting.util.lang.ClocService;
 import com.pwhiting.util.lang.CodeSniffer;
@@ -53,11 +57,20 @@ public class SVNRepo extends Repo {
 
 	private static final String DEFAULT_FILE_PATH = "files/";
 
+	private static final String DEFAULT_MIRROR_PATH = "mirror";
+
 	private static final String DEFAULT_USERNAME = "username";
 
 	private static final String DEFAULT_PASSWORD = "password";
 
 	private static final boolean AUTOSYNC = true;
+
+	/**
+	 * Kept low by default, since every thread holds its own connection to the
+	 * server.
+	 */
+	private static final int DEFAULT_DIFF_THREADS = 4;
+
 	private final ISVNAuthenticationManager authManager;
 
 	private final SVNUpdateClient updateClient;
@@ -66,6 +79,16 @@ public class SVNRepo extends Repo {
 
 	private String currBranch;
 
+	private boolean replayIngestion;
+
+	private int diffThreads = DEFAULT_DIFF_THREADS;
+
+	private PathGlobFilter pathFilter = PathGlobFilter.ALL;
+
+	private final String username;
+
+	private final String password;
+
 	final SVNRepository theRepo;
 
 	/**
@@ -131,6 +154,8 @@ public class SVNRepo extends Repo {
 		DAVRepositoryFactory.setup();
 
 		currBranch = branch == null ? TRUNK : branch;
+		this.username = username;
+		this.password = password;
 		theRepo = SVNRepositoryFactory.create(SVNURL.parseURIEncoded(url));
 		authManager = SVNWCUtil.createDefaultAuthenticationManager(username, password);
 		theRepo.setAuthenticationManager(authManager);
@@ -167,46 +192,6 @@ public class SVNRepo extends Repo {
 
 	}
 
-	private Diff compareRevisions(final SVNRevision rev1, final SVNRevision rev2) throws SVNException {
-
-		final Diff diff = new Diff();
-
-		try (final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-
-			doDiff(rev1, rev2, baos);
-
-			int filesChanged = 0;
-			int additions = 0;
-			int deletions = 0;
-
-			final String[] lines = baos.toString().split("\n");
-			
-			for (final String line : lines) {
-
-				if (line.startsWith("---")) {
-					filesChanged++;
-				} else if (line.startsWith("+++")) {
-					// No action needed
-				} else if (line.startsWith("+")) {
-					additions++;
-				} else if (line.startsWith("-")) {
-					deletions++;
-				}
-
-			}
-
-			diff.additions = additions;
-			diff.deletions = deletions;
-			diff.changedFiles = filesChanged;
-
-			return diff;
-
-		} catch (final IOException e) {
-			LOGGER.trace("Could not close stream", e);
-			return diff;
-		}
-	}
-	
 	/**
 	 * This disables reading and writing to cache of log entries, forcing diff
 	 * comparison for each entry.
@@ -217,11 +202,40 @@ public class SVNRepo extends Repo {
 		commitLogger.setDisabled(value);
 	}
 
-	private void doDiff(final SVNRevision rev1, final SVNRevision rev2, final OutputStream baos) throws SVNException {
+	/**
+	 * Sets how many revisions are diffed at once, which is also the most
+	 * connections opened to the server at once. Results are the same
+	 * regardless of the count, a count of 1 diffs everything on the syncing
+	 * thread.
+	 *
+	 * @param threads
+	 */
+	public void setDiffThreadCount(final int threads) {
+		diffThreads = Math.max(1, threads);
+	}
 
-		final SVNDiffClient diffs = new SVNDiffClient(authManager, null);
-		diffs.doDiff(theRepo.getLocation(), rev1, rev1, rev2, SVNDepth.INFINITY, true, baos);
+	/**
+	 * Sets which files are counted in revisions, by their path relative to the
+	 * repository url. Revisions already in the commit log keep what they were
+	 * counted with, see {@link #setLogEntryCacheDisabled(boolean)}.
+	 *
+	 * @param filter
+	 */
+	public void setPathFilter(final PathGlobFilter filter) {
+		pathFilter = filter;
+	}
 
+	/**
+	 * Gets the changes of all revisions from a single replay of the revision
+	 * range, instead of requesting a diff for each revision. This keeps a
+	 * mirror of the repo's files in the temp directory, and the counts may be
+	 * slightly different from a per revision diff, see
+	 * {@link SVNReplayCollector}.
+	 *
+	 * @param value
+	 */
+	public void setReplayIngestion(final boolean value) {
+		replayIngestion = value;
 	}
 
 	/**
@@ -320,7 +334,17 @@ public class SVNRepo extends Repo {
 				start.getNumber(), end.getNumber(), true, true);
 
 		LOGGER.info("Analyzing {} entries.", logEntries.size());
-		
+
+		final Map<Long, int[]> changes = Maps.newHashMap();
+
+		if (replayIngestion) {
+			changes.putAll(replayRevisions(logEntries));
+		}
+
+		changes.putAll(diffRevisions(logEntries, changes.keySet()));
+
+		final Map<CommitterInfo, List<Commit>> byCommitter = Maps.newLinkedHashMap();
+
 		for (final SVNLogEntry leEntry : logEntries) {
 
 			LOGGER.debug("Revision {}", leEntry.getRevision());
@@ -333,8 +357,7 @@ public class SVNRepo extends Repo {
 				LOGGER.debug("Commit rev {} already exists in log file, skipping.", commit.getId());
 			} else {
 
-				LOGGER.debug("Calculating differences...");
-				final Diff diffs = compareRevisions(s(rev - 1), s(rev));
+				final Diff diffs = new Diff(changes.get(rev));
 
 				LOGGER.debug(
 						"Differences calculated with {} additions, {} deletions, and {} files changed",
@@ -350,12 +373,120 @@ public class SVNRepo extends Repo {
 
 			currRev++;
 			LOGGER.debug("{}/{} entries processed", currRev, logEntries.size());
-			ai.incrementAdditions(commit.getAdditions());
-			ai.incrementDeletions(commit.getDeletions());
-			ai.add(commit);
+
+			List<Commit> toAdd = byCommitter.get(ai);
+
+			if (toAdd == null) {
+				toAdd = Lists.newArrayList();
+				byCommitter.put(ai, toAdd);
+			}
+
+			toAdd.add(commit);
+		}
+
+		for (final Map.Entry<CommitterInfo, List<Commit>> entry : byCommitter.entrySet()) {
+			bi.addCommits(entry.getKey(), entry.getValue());
 		}
 	}
 
+	/**
+	 * Diffs every revision that is neither in the commit log nor already
+	 * known, using the diff thread pool.
+	 *
+	 * @param logEntries
+	 * @param known
+	 *            revisions whose changes are already known
+	 * @return the changes of each diffed revision
+	 * @throws SVNException
+	 */
+	private Map<Long, int[]> diffRevisions(final Collection<SVNLogEntry> logEntries, final Set<Long> known)
+			throws SVNException {
+
+		final List<Long> revisions = Lists.newArrayList();
+
+		for (final SVNLogEntry entry : logEntries) {
+			if (!known.contains(entry.getRevision()) && !commitLogger.hasCommit(entry.getRevision())) {
+				revisions.add(entry.getRevision());
+			}
+		}
+
+		final Map<Long, int[]> changes = Maps.newHashMap();
+
+		if (revisions.isEmpty()) { return changes; }
+
+		final List<int[]> results;
+
+		try (SVNDiffEngine engine = new SVNDiffEngine(theRepo.getLocation(), username, password, diffThreads,
+				pathFilter)) {
+
+			LOGGER.info("Calculating differences for {} revisions on {} threads", revisions.size(), engine
+					.getThreadCount());
+
+			results = engine.compare(revisions);
+		}
+
+		for (int i = 0; i < revisions.size(); i++) {
+			changes.put(revisions.get(i), results.get(i));
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Replays every revision that is not in the commit log yet, picking up
+	 * where the mirror left off.
+	 *
+	 * @param logEntries
+	 * @return the changes of each replayed revision
+	 * @throws SVNException
+	 */
+	private Map<Long, int[]> replayRevisions(final Collection<SVNLogEntry> logEntries) throws SVNException {
+
+		long first = Long.MAX_VALUE;
+		long last = -1L;
+
+		for (final SVNLogEntry entry : logEntries) {
+			if (!commitLogger.hasCommit(entry.getRevision())) {
+				first = Math.min(first, entry.getRevision());
+				last = Math.max(last, entry.getRevision());
+			}
+		}
+
+		if (last < 0) { return Collections.emptyMap(); }
+
+		final SVNRepository fetcher = SVNRepositoryFactory.create(theRepo.getLocation());
+		fetcher.setAuthenticationManager(authManager);
+
+		try {
+
+			final SVNReplayCollector collector = new SVNReplayCollector(new File(theDirectory, DEFAULT_MIRROR_PATH),
+					fetcher, pathFilter);
+			long start = collector.getMirrorRevision() + 1;
+
+			if (start == 0) {
+				collector.resetMirror();
+				start = first;
+			}
+
+			if (start > last) { return Collections.emptyMap(); }
+
+			LOGGER.info("Replaying revisions {} to {}", start, last);
+
+			try {
+				theRepo.replayRange(start, last, 0L, true, collector);
+			} catch (final SVNException e) {
+				LOGGER.warn("Replay stopped early, the remaining revisions will be diffed one at a time");
+				LOGGER.debug("Error is", e);
+			}
+
+			return collector.getResults();
+
+		} finally {
+			fetcher.closeSession();
+		}
+
+	}
+
 	private void updateRepoInfo(final BranchInfo bi, final boolean update) throws SVNException {
 
 		final String branch = bi.getBranch();
@@ -405,6 +536,17 @@ public class SVNRepo extends Repo {
 		private int deletions;
 		private int changedFiles;
 
+		/**
+		 * @param results
+		 *            index reference: 0 = additions, 1 = deletions, 2 = files
+		 *            changed
+		 */
+		Diff(final int[] results) {
+			additions = results[0];
+			deletions = results[1];
+			changedFiles = results[2];
+		}
+
 	}
 
 }
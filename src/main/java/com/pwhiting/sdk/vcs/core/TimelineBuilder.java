@@ -0,0 +1,214 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pwhiting.sdk.vcs.core.TreeStatsCache.TreeStats;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.sdk.vcs.core.util.TimelineInterval;
+import com.pwhiting.util.lang.CodeSniffer;
+
+/**
+ * Works out the statistics of a branch over time in a single pass over its
+ * history, instead of a snapshot per point in time.
+ * <p>
+ * The first parent chain of the head is walked from oldest to newest, and the
+ * files each commit changed against its first parent are added to and taken
+ * away from running counts. Along that chain the changes add up to each
+ * commit's whole tree, so every point holds the same counts a snapshot of that
+ * commit would. Commits that only reached the branch through a merge are part
+ * of the merge's point rather than points of their own.
+ *
+ * @author phwhitin
+ *
+ */
+final class TimelineBuilder {
+
+	/**
+	 * How many commits have their changed blobs counted together.
+	 */
+	private static final int BATCH_SIZE = 1024;
+
+	private final Repository repository;
+
+	private final int threads;
+
+	private final PathGlobFilter filter;
+
+	/**
+	 * Line count of every file in the tree of the last applied commit.
+	 */
+	private final Map<String, Integer> files = Maps.newHashMap();
+
+	private final TreeStats stats = new TreeStats();
+
+	/**
+	 * @param repository
+	 * @param threads
+	 *            how many threads count the lines of changed blobs
+	 * @param filter
+	 *            which paths are counted
+	 */
+	TimelineBuilder(final Repository repository, final int threads, final PathGlobFilter filter) {
+		this.repository = repository;
+		this.threads = threads;
+		this.filter = filter;
+	}
+
+	/**
+	 * Walks the history of the head.
+	 *
+	 * @param head
+	 * @param interval
+	 *            how far apart the points are. Other than for
+	 *            {@link TimelineInterval#COMMIT}, each point is the last commit
+	 *            of its day, week or month.
+	 * @return map of commit to the statistics of its tree, oldest first
+	 * @throws IOException
+	 */
+	Map<RevCommit, TreeStats> build(final ObjectId head, final TimelineInterval interval) throws IOException {
+
+		final List<RevCommit> chain = getFirstParents(head);
+		final Map<RevCommit, TreeStats> points = Maps.newLinkedHashMap();
+
+		try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
+				BlobLineCounter counter = new BlobLineCounter(repository, threads)) {
+
+			df.setRepository(repository);
+			df.setDetectRenames(false);
+			df.setPathFilter(filter.toTreeFilter());
+
+			for (int start = 0; start < chain.size(); start += BATCH_SIZE) {
+
+				final int end = Math.min(start + BATCH_SIZE, chain.size());
+				final List<List<DiffEntry>> changes = Lists.newArrayList();
+				final Map<ObjectId, Integer> lines = Maps.newHashMap();
+
+				for (int i = start; i < end; i++) {
+
+					final List<DiffEntry> entries = df.scan(i > 0 ? chain.get(i - 1).getTree() : null, chain.get(i)
+							.getTree());
+
+					for (final DiffEntry entry : entries) {
+						if (entry.getChangeType() != ChangeType.DELETE && isBlob(entry)) {
+							lines.put(entry.getNewId().toObjectId(), 0);
+						}
+					}
+
+					changes.add(entries);
+				}
+
+				final List<ObjectId> blobs = Lists.newArrayList(lines.keySet());
+				final List<Integer> counts = counter.count(blobs);
+
+				for (int i = 0; i < blobs.size(); i++) {
+					lines.put(blobs.get(i), counts.get(i));
+				}
+
+				for (int i = start; i < end; i++) {
+
+					apply(changes.get(i - start), lines);
+
+					final RevCommit commit = chain.get(i);
+
+					if (i == chain.size() - 1 || interval == TimelineInterval.COMMIT
+							|| bucket(commit, interval) != bucket(chain.get(i + 1), interval)) {
+						points.put(commit, stats.copy());
+					}
+
+				}
+
+			}
+
+		}
+
+		return points;
+	}
+
+	private void apply(final List<DiffEntry> entries, final Map<ObjectId, Integer> lines) {
+
+		for (final DiffEntry entry : entries) {
+
+			if (entry.getChangeType() != ChangeType.ADD) {
+
+				final Integer removed = files.remove(entry.getOldPath());
+
+				if (removed != null) {
+					stats.add(CodeSniffer.detectLanguage(entry.getOldPath()), -1, -removed);
+				}
+
+			}
+
+			if (entry.getChangeType() != ChangeType.DELETE) {
+
+				// Submodules have no lines
+				final int added = isBlob(entry) ? lines.get(entry.getNewId().toObjectId()) : 0;
+
+				files.put(entry.getNewPath(), added);
+				stats.add(CodeSniffer.detectLanguage(entry.getNewPath()), 1, added);
+			}
+
+		}
+
+	}
+
+	private List<RevCommit> getFirstParents(final ObjectId head) throws IOException {
+
+		final List<RevCommit> chain = Lists.newArrayList();
+
+		try (RevWalk rw = new RevWalk(repository)) {
+
+			rw.setRetainBody(false);
+
+			RevCommit commit = rw.parseCommit(head);
+			chain.add(commit);
+
+			while (commit.getParentCount() > 0) {
+				commit = rw.parseCommit(commit.getParent(0));
+				chain.add(commit);
+			}
+
+		}
+
+		return Lists.reverse(chain);
+	}
+
+	private static boolean isBlob(final DiffEntry entry) {
+		return entry.getNewMode().getObjectType() == Constants.OBJ_BLOB;
+	}
+
+	/**
+	 * The start of the day, week or month the commit was made in.
+	 */
+	private static long bucket(final RevCommit commit, final TimelineInterval interval) {
+
+		final DateTime time = new DateTime(commit.getCommitTime() * 1000L);
+
+		switch (interval) {
+		case DAY:
+			return time.withTimeAtStartOfDay().getMillis();
+		case WEEK:
+			return time.weekOfWeekyear().roundFloorCopy().getMillis();
+		case MONTH:
+			return time.monthOfYear().roundFloorCopy().getMillis();
+		default:
+			return time.getMillis();
+		}
+
+	}
+
+}
@@ -0,0 +1,386 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.util.lang.ClocData;
+import com.pwhiting.util.lang.ClocData.LangStats;
+import com.pwhiting.util.lang.CodeSniffer;
+import com.pwhiting.util.lang.CodeSniffer.Language;
+
+/**
+ * Remembers file, line and language counts for every tree below the root of a
+ * snapshot, keyed by the tree's object id. A tree's id only changes if
+ * something under it changed, so a snapshot only reads the trees and blobs
+ * that differ from snapshots taken before, and everything else is rolled up
+ * from the cache.
+ * <p>
+ * {@link CodeSniffer#detectLanguage(String)} is given the whole path, and
+ * only matches whole file names such as {@code pom.xml} at the top of the
+ * tree. Below the top, the language depends only on the file name, which is
+ * what makes caching by tree id safe. Files at the top are counted every time.
+ * <p>
+ * With a {@link PathGlobFilter}, what is counted in a tree also depends on
+ * where it is, so trees are cached by path as well as by id.
+ * <p>
+ * Safe to share between threads.
+ *
+ * @author phwhitin
+ *
+ */
+final class TreeStatsCache {
+
+	static final int DEFAULT_CAPACITY = 200000;
+
+	/**
+	 * Stands in for the parent directories of a nested file, see
+	 * {@link #detectLanguage(String, boolean)}.
+	 */
+	private static final String NESTED_PREFIX = "d/";
+
+	private final Map<Object, TreeStats> cache;
+
+	private final PathGlobFilter filter;
+
+	TreeStatsCache() {
+		this(PathGlobFilter.ALL);
+	}
+
+	TreeStatsCache(final PathGlobFilter filter) {
+		this(DEFAULT_CAPACITY, filter);
+	}
+
+	TreeStatsCache(final int capacity, final PathGlobFilter filter) {
+
+		this.filter = filter;
+
+		cache = new LinkedHashMap<Object, TreeStats>(16, 0.75F, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Object, TreeStats> eldest) {
+				return size() > capacity;
+			}
+
+		};
+	}
+
+	/**
+	 * Works out the statistics of a whole tree.
+	 *
+	 * @param repository
+	 * @param tree
+	 *            the root tree of a commit
+	 * @param threads
+	 *            how many threads count the lines of blobs not seen before
+	 * @return the statistics
+	 * @throws IOException
+	 */
+	TreeStats compute(final Repository repository, final ObjectId tree, final int threads) throws IOException {
+		return compute(repository, tree, threads, 0).get("");
+	}
+
+	/**
+	 * Works out the statistics of a tree and of each directory in it, down to
+	 * the given depth.
+	 *
+	 * @param repository
+	 * @param tree
+	 *            the root tree of a commit
+	 * @param threads
+	 *            how many threads count the lines of blobs not seen before
+	 * @param depth
+	 *            how many levels of directories to break down, 0 for just the
+	 *            root
+	 * @return map of directory path to its statistics, the root is ""
+	 * @throws IOException
+	 */
+	Map<String, TreeStats> compute(final Repository repository, final ObjectId tree, final int threads,
+			final int depth) throws IOException {
+
+		final Node root;
+		final Map<ObjectId, Integer> lines = Maps.newHashMap();
+
+		try (ObjectReader reader = repository.newObjectReader()) {
+			root = scan(reader, tree, "", 0, depth, lines);
+		}
+
+		final List<ObjectId> blobs = Lists.newArrayList(lines.keySet());
+		final List<Integer> counts;
+
+		try (BlobLineCounter counter = new BlobLineCounter(repository, threads)) {
+			counts = counter.count(blobs);
+		}
+
+		for (int i = 0; i < blobs.size(); i++) {
+			lines.put(blobs.get(i), counts.get(i));
+		}
+
+		final Map<String, TreeStats> directories = Maps.newLinkedHashMap();
+		rollUp(root, lines, depth, directories);
+		return directories;
+	}
+
+	/**
+	 * Reads a tree, only going into subtrees that are not cached or that are
+	 * needed for the breakdown.
+	 */
+	private Node scan(final ObjectReader reader, final ObjectId tree, final String path, final int level,
+			final int depth, final Map<ObjectId, Integer> lines) throws IOException {
+
+		final Node node = new Node(tree, path, level);
+
+		if (level > 0) {
+			node.stats = get(key(tree, path));
+			if (node.stats != null && level >= depth) { return node; }
+		}
+
+		final CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, tree);
+
+		for (; !parser.eof(); parser.next()) {
+
+			final FileMode mode = parser.getEntryFileMode();
+			final String name = parser.getEntryPathString();
+			final String childPath = path.isEmpty() ? name : path + "/" + name;
+
+			if (mode == FileMode.TREE) {
+
+				if (filter.mayInclude(childPath)) {
+					node.children.add(scan(reader, parser.getEntryObjectId(), childPath, level + 1, depth, lines));
+				}
+
+			} else if (node.stats == null && filter.isIncluded(childPath)) {
+
+				// Submodules have no lines
+				final ObjectId blob = mode.getObjectType() == Constants.OBJ_BLOB ? parser.getEntryObjectId() : null;
+
+				node.languages.add(detectLanguage(name, level == 0));
+				node.blobs.add(blob);
+
+				if (blob != null && !lines.containsKey(blob)) {
+					lines.put(blob, 0);
+				}
+
+			}
+
+		}
+
+		return node;
+	}
+
+	private TreeStats rollUp(final Node node, final Map<ObjectId, Integer> lines, final int depth,
+			final Map<String, TreeStats> directories) {
+
+		final boolean isCached = node.stats != null;
+
+		// Holds the directory's place so parents come before their children
+		if (node.level <= depth) {
+			directories.put(node.path, null);
+		}
+
+		if (!isCached) {
+
+			node.stats = new TreeStats();
+
+			for (int i = 0; i < node.blobs.size(); i++) {
+				final ObjectId blob = node.blobs.get(i);
+				node.stats.addFile(node.languages.get(i), blob != null ? lines.get(blob) : 0);
+			}
+
+		}
+
+		for (final Node child : node.children) {
+
+			final TreeStats childStats = rollUp(child, lines, depth, directories);
+
+			if (!isCached) {
+				node.stats.add(childStats);
+			}
+
+		}
+
+		if (!isCached && node.level > 0) {
+			put(key(node.tree, node.path), node.stats);
+		}
+
+		if (node.level <= depth) {
+			directories.put(node.path, node.stats);
+		}
+
+		return node.stats;
+	}
+
+	/**
+	 * @return the tree id, or the path and tree id if paths are filtered
+	 */
+	private Object key(final ObjectId tree, final String path) {
+		return filter.isAll() ? tree : path + ":" + tree.name();
+	}
+
+	private synchronized TreeStats get(final Object key) {
+		return cache.get(key);
+	}
+
+	private synchronized void put(final Object key, final TreeStats stats) {
+		cache.put(key, stats);
+	}
+
+	synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Detects the language the same way a full path would.
+	 *
+	 * @param name
+	 *            the file name
+	 * @param isTopLevel
+	 *            if the file is at the top of the tree
+	 * @return the language
+	 */
+	private static Language detectLanguage(final String name, final boolean isTopLevel) {
+		return CodeSniffer.detectLanguage(isTopLevel ? name : NESTED_PREFIX + name);
+	}
+
+	/**
+	 * A tree being computed.
+	 */
+	private static final class Node {
+
+		private final ObjectId tree;
+
+		private final String path;
+
+		private final int level;
+
+		private final List<Node> children = Lists.newArrayList();
+
+		private final List<Language> languages = Lists.newArrayList();
+
+		private final List<ObjectId> blobs = Lists.newArrayList();
+
+		private TreeStats stats;
+
+		Node(final ObjectId tree, final String path, final int level) {
+			this.tree = tree;
+			this.path = path;
+			this.level = level;
+		}
+
+	}
+
+	/**
+	 * File and line counts of a tree, overall and per language. Never changed
+	 * once cached, but {@link TimelineBuilder} keeps a running one that it
+	 * copies at each point.
+	 */
+	static final class TreeStats {
+
+		private int files;
+
+		private int lines;
+
+		private final Map<Language, int[]> languages = new EnumMap<Language, int[]>(Language.class);
+
+		int getFileCount() {
+			return files;
+		}
+
+		int getLineCount() {
+			return lines;
+		}
+
+		/**
+		 * @return map of language to array with index reference: 0 = files, 1
+		 *         = lines
+		 */
+		Map<Language, int[]> getLanguages() {
+			return languages;
+		}
+
+		private void addFile(final Language language, final int lineCount) {
+			add(language, 1, lineCount);
+		}
+
+		private void add(final TreeStats other) {
+			for (final Map.Entry<Language, int[]> entry : other.languages.entrySet()) {
+				add(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+			}
+		}
+
+		/**
+		 * Adds to the counts of a language, negative counts take away from it.
+		 * A language without files is left out.
+		 */
+		void add(final Language language, final int fileCount, final int lineCount) {
+
+			int[] counts = languages.get(language);
+
+			if (counts == null) {
+				counts = new int[2];
+				languages.put(language, counts);
+			}
+
+			counts[0] += fileCount;
+			counts[1] += lineCount;
+			files += fileCount;
+			lines += lineCount;
+
+			if (counts[0] <= 0) {
+				languages.remove(language);
+			}
+
+		}
+
+		TreeStats copy() {
+
+			final TreeStats copy = new TreeStats();
+
+			for (final Map.Entry<Language, int[]> entry : languages.entrySet()) {
+				copy.languages.put(entry.getKey(), entry.getValue().clone());
+			}
+
+			copy.files = files;
+			copy.lines = lines;
+			return copy;
+		}
+
+		/**
+		 * Turns the statistics into the form cloc gives them in.
+		 *
+		 * @return new data holding the file and line counts
+		 */
+		ClocData toClocData() {
+
+			final ClocData data = new ClocData();
+
+			data.getHeader().setnFiles(files);
+			data.getHeader().setnLines(lines);
+
+			for (final Map.Entry<Language, int[]> entry : languages.entrySet()) {
+				final LangStats stat = new LangStats(entry.getKey());
+				stat.setnFiles(entry.getValue()[0]);
+				stat.setCodeLines(entry.getValue()[1]);
+				data.getLanguageStatsMutable().put(entry.getKey(), stat);
+			}
+
+			return data;
+		}
+
+	}
+
+}
@@ -0,0 +1,272 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Remembers how many lines were added and deleted going from one blob to
+ * another. Since blobs are keyed by their object id, an entry never goes
+ * stale, so results can be shared by every branch and kept across runs.
+ * <p>
+ * Entries are held in memory with least recently used eviction, and new
+ * entries are appended to a file on {@link #flush()} so the next run starts
+ * warm. The cache is safe to share between threads.
+ *
+ * @author phwhitin
+ *
+ */
+public class BlobDiffCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlobDiffCache.class.getSimpleName());
+
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	/** Older files also held binary and oversized pairs, which are no longer cached */
+	private static final int MAGIC = 0x42444332;
+
+	private static final int RECORD_SIZE = 2 * Constants.OBJECT_ID_LENGTH + 8;
+
+	private final File cacheFile;
+
+	private final int capacity;
+
+	private final Map<Key, int[]> entries;
+
+	private final List<Key> pending = Lists.newArrayList();
+
+	private int recordsOnDisk;
+
+	private boolean needsRewrite;
+
+	private boolean isInit;
+
+	public BlobDiffCache(final File cacheFile) {
+		this(cacheFile, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param cacheFile
+	 *            where entries are persisted
+	 * @param capacity
+	 *            how many entries to keep in memory
+	 */
+	public BlobDiffCache(final File cacheFile, final int capacity) {
+
+		this.cacheFile = cacheFile;
+		this.capacity = capacity;
+
+		entries = new LinkedHashMap<Key, int[]>(16, 0.75F, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key, int[]> eldest) {
+				return size() > BlobDiffCache.this.capacity;
+			}
+
+		};
+
+		isInit = load();
+	}
+
+	/**
+	 * Looks up the line changes between two blobs.
+	 *
+	 * @param oldId
+	 * @param newId
+	 * @return array with index reference: 0 = additions, 1 = deletions, or
+	 *         null if the pair has not been seen
+	 */
+	public synchronized int[] get(final AnyObjectId oldId, final AnyObjectId newId) {
+		return entries.get(new Key(oldId, newId));
+	}
+
+	public synchronized void put(final AnyObjectId oldId, final AnyObjectId newId, final int additions, final int deletions) {
+
+		final Key key = new Key(oldId, newId);
+
+		if (entries.put(key, new int[] { additions, deletions }) == null) {
+			pending.add(key);
+		}
+
+	}
+
+	/**
+	 * Writes entries added since the last flush to disk. If the file has grown
+	 * well past what is kept in memory, it is rewritten with only the current
+	 * entries.
+	 */
+	public synchronized void flush() {
+
+		if (!isInit || pending.isEmpty()) { return; }
+
+		try {
+
+			if (needsRewrite || recordsOnDisk + pending.size() > 2 * capacity) {
+				rewrite();
+			} else {
+				append();
+			}
+
+		} catch (final IOException e) {
+			isInit = false;
+			LOGGER.debug("Could not save blob diff cache to {}", cacheFile);
+			LOGGER.trace("Error is", e);
+		}
+
+		pending.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void append() throws IOException {
+
+		final boolean isNew = !cacheFile.exists() || cacheFile.length() == 0;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, true)))) {
+
+			if (isNew) {
+				out.writeInt(MAGIC);
+			}
+
+			for (final Key key : pending) {
+
+				final int[] value = entries.get(key);
+
+				if (value != null) {
+					write(out, key, value);
+					recordsOnDisk++;
+				}
+
+			}
+
+		}
+
+	}
+
+	private void rewrite() throws IOException {
+
+		recordsOnDisk = 0;
+		needsRewrite = false;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, false)))) {
+
+			out.writeInt(MAGIC);
+
+			for (final Map.Entry<Key, int[]> entry : entries.entrySet()) {
+				write(out, entry.getKey(), entry.getValue());
+				recordsOnDisk++;
+			}
+
+		}
+
+	}
+
+	private boolean load() {
+
+		if (!cacheFile.exists()) {
+			return cacheFile.getParentFile() != null && (cacheFile.getParentFile().exists() || cacheFile.getParentFile().mkdirs());
+		}
+
+		final byte[] raw = new byte[2 * Constants.OBJECT_ID_LENGTH];
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+
+			if (in.readInt() != MAGIC) { throw new IOException("Not a blob diff cache"); }
+
+			while (true) {
+
+				final int[] value = new int[2];
+
+				try {
+					in.readFully(raw);
+					value[0] = in.readInt();
+					value[1] = in.readInt();
+				} catch (final EOFException e) {
+					break;
+				}
+
+				entries.put(new Key(ObjectId.fromRaw(raw, 0), ObjectId.fromRaw(raw, Constants.OBJECT_ID_LENGTH)), value);
+				recordsOnDisk++;
+
+			}
+
+			// A partly written record at the end would throw off later appends
+			needsRewrite = cacheFile.length() != 4 + (long) recordsOnDisk * RECORD_SIZE;
+
+			LOGGER.debug("Loaded {} blob diffs from {}", entries.size(), cacheFile);
+			return true;
+
+		} catch (final IOException e) {
+
+			LOGGER.debug("Blob diff cache {} is unreadable, starting over", cacheFile);
+			LOGGER.trace("Error is", e);
+			entries.clear();
+			recordsOnDisk = 0;
+			return cacheFile.delete();
+
+		}
+
+	}
+
+	private static void write(final DataOutputStream out, final Key key, final int[] value) throws IOException {
+
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+
+		key.oldId.copyRawTo(raw, 0);
+		out.write(raw);
+		key.newId.copyRawTo(raw, 0);
+		out.write(raw);
+		out.writeInt(value[0]);
+		out.writeInt(value[1]);
+
+	}
+
+	private static final class Key {
+
+		private final ObjectId oldId;
+
+		private final ObjectId newId;
+
+		Key(final AnyObjectId oldId, final AnyObjectId newId) {
+			this.oldId = oldId.toObjectId();
+			this.newId = newId.toObjectId();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+
+			if (!(obj instanceof Key)) { return false; }
+
+			final Key other = (Key) obj;
+			return oldId.equals(other.oldId) && newId.equals(other.newId);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * oldId.hashCode() + newId.hashCode();
+		}
+
+	}
+
+}
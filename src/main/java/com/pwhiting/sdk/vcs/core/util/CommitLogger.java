@@ -1,36 +1,59 @@
 package com.pwhiting.sdk.vcs.core.util;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.pwhiting.sdk.vcs.core.Commit;
 
 /**
  * Tool for storing commits to log.
- * 
+ * <p>
+ * The log holds one JSON commit per line and is only ever appended to. An
+ * index of where each commit sits in the file is rebuilt when the log is
+ * opened, so adding and looking up a commit never reads the whole log.
+ *
  * @author phwhitin
  *
  */
 public class CommitLogger {
-	
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(CommitLogger.class.getSimpleName());
 
 	private static final String LOG_FILE_PATH = "logs/";
-	
-	private static final String LOG_FILE = "commit-log.json";
-	
+
+	private static final String LOG_FILE = "commit-log.jsonl";
+
+	/**
+	 * Older versions kept every commit in a single JSON array.
+	 */
+	private static final String LEGACY_LOG_FILE = "commit-log.json";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	private final File logFile;
-	
+
+	private final Map<String, Record> index = Maps.newHashMap();
+
+	private long length;
+
 	private boolean isInit;
-	
+
 	public CommitLogger(File file) {
 		logFile = new File(file, LOG_FILE_PATH + LOG_FILE);
 		try {
@@ -38,8 +61,10 @@ public class CommitLogger {
 			if (!logFile.exists()) {
 				logFile.createNewFile();
 			}
+			buildIndex();
 			isInit = true;
-			LOGGER.debug("Got log " + logFile);
+			importLegacyLog(new File(file, LOG_FILE_PATH + LEGACY_LOG_FILE));
+			LOGGER.debug("Got log {} with {} commits", logFile, index.size());
 		} catch (IOException e) {
 			isInit = false;
 			LOGGER.debug("Log acquision for file {} failed", logFile);
@@ -47,60 +72,185 @@ public class CommitLogger {
 		}
 	}
 
-	public void addCommitToJsonLog(final Commit commit) {
+	/**
+	 * Appends the commit to the log, unless a commit with the same id is
+	 * already there.
+	 *
+	 * @param commit
+	 */
+	public synchronized void addCommitToJsonLog(final Commit commit) {
 
-		if (!isInit) { return; }
-		
-		final ObjectMapper mapper = new ObjectMapper();
+		if (!isInit || index.containsKey(commit.getId())) { return; }
 
-		final List<Commit> commits = getLoggedCommits();
+		try (OutputStream out = new FileOutputStream(logFile, true)) {
 
-		for (final Commit c : commits) {
-			if (c.isTheSame(commit)) { return; }
-		}
+			final byte[] bytes = MAPPER.writeValueAsBytes(commit);
 
-		commits.add(commit);
+			out.write(bytes);
+			out.write('\n');
+
+			index.put(commit.getId(), new Record(length, bytes.length));
+			length += bytes.length + 1;
 
-		try {
-			mapper.writeValue(logFile, commits);
 		} catch (final Exception e) {
+
 			LOGGER.debug("Error occurred during saving to log file", e);
+
+			// Part of the line may have been written, which the next commit
+			// would be appended to
+			try {
+				truncateToLength();
+			} catch (final IOException e1) {
+				isInit = false;
+				LOGGER.debug("Could not trim log file {}, no longer logging to it", logFile);
+				LOGGER.trace("Error is", e1);
+			}
+
 		}
 	}
 
-	public Commit getCommit(final long id) {
+	public synchronized boolean hasCommit(final long id) {
+		return isInit && index.containsKey(String.valueOf(id));
+	}
+
+	public synchronized Commit getCommit(final long id) {
 
 		if (!isInit) { return null; }
 
-		for (final Commit commit : getLoggedCommits()) {
-			if (commit.getId().equals(String.valueOf(id))) { return commit; }
+		final Record record = index.get(String.valueOf(id));
+
+		if (record == null) { return null; }
+
+		try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+
+			final byte[] bytes = new byte[record.length];
+
+			in.seek(record.offset);
+			in.readFully(bytes);
+
+			return MAPPER.readValue(bytes, Commit.class);
+
+		} catch (final Exception e) {
+			LOGGER.debug("Could not read commit {} from log file", id);
+			LOGGER.trace("Error is", e);
+			return null;
 		}
 
-		return null;
+	}
+
+	/**
+	 * Scans the log for where each commit starts. A line cut short by an
+	 * interrupted write is dropped from the end of the file.
+	 *
+	 * @throws IOException
+	 */
+	private void buildIndex() throws IOException {
+
+		long offset = 0;
+		long lineStart = 0;
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(logFile))) {
+
+			int b;
+			while ((b = in.read()) != -1) {
 
+				offset++;
+
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+
+				try {
+					final String id = MAPPER.readTree(line.toByteArray()).path("id").asText();
+					index.put(id, new Record(lineStart, line.size()));
+				} catch (final IOException e) {
+					LOGGER.trace("Skipping unreadable log entry at {}", lineStart, e);
+				}
+
+				line.reset();
+				lineStart = offset;
+			}
+
+		}
+
+		length = lineStart;
+		truncateToLength();
 	}
 
-	private List<Commit> getLoggedCommits() {
+	/**
+	 * Cuts anything after the last whole line off the end of the file.
+	 *
+	 * @throws IOException
+	 */
+	private void truncateToLength() throws IOException {
+
+		if (length == logFile.length()) { return; }
 
-		final ObjectMapper mapper = new ObjectMapper();
-		final TypeReference<List<Commit>> ref = new TypeReference<List<Commit>>() {
-		};
-		List<Commit> commits = Lists.newArrayList();
+		try (RandomAccessFile out = new RandomAccessFile(logFile, "rw")) {
+			out.setLength(length);
+		}
+
+	}
+
+	/**
+	 * Moves commits from the old single array log into this one, then removes
+	 * the old log. An old log that can not be read is renamed aside rather
+	 * than removed, so its commits are not lost.
+	 *
+	 * @param legacyFile
+	 */
+	private void importLegacyLog(final File legacyFile) {
 
-		if (!isInit) { return commits; }
+		if (!legacyFile.exists()) { return; }
 
 		try {
-			commits = mapper.readValue(logFile, ref);
-		} catch (final Exception e) {
-			LOGGER.trace("Doesn't exist yet", e);
-		}
 
-		return commits;
+			if (legacyFile.length() > 0) {
+
+				final List<Commit> commits = MAPPER.readValue(legacyFile, new TypeReference<List<Commit>>() {
+				});
+
+				for (final Commit commit : commits) {
+					addCommitToJsonLog(commit);
+				}
 
+				LOGGER.debug("Imported {} commits from {}", commits.size(), legacyFile);
+			}
+
+		} catch (final IOException e) {
+
+			final File aside = new File(legacyFile.getPath() + ".unreadable");
+			FileUtils.deleteQuietly(aside);
+
+			LOGGER.warn("Could not import old log file {}, {} it to {}", legacyFile,
+					legacyFile.renameTo(aside) ? "moved" : "could not move", aside);
+			LOGGER.trace("Error is", e);
+			return;
+		}
+
+		FileUtils.deleteQuietly(legacyFile);
 	}
-	
+
 	public void setDisabled(boolean value) {
 		isInit = !value;
 	}
-	
+
+	/**
+	 * Where a commit sits in the log file.
+	 */
+	private static final class Record {
+
+		private final long offset;
+
+		private final int length;
+
+		Record(final long offset, final int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
 }
@@ -0,0 +1,152 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Counts the changes in a unified diff as it is written, without keeping any
+ * of it. Only the first three bytes of each line are looked at, so memory use
+ * is the same no matter how large the diff is.
+ * <p>
+ * A line starting with {@code ---} counts as a changed file, {@code +++} is
+ * ignored, and any other line starting with {@code +} or {@code -} counts as
+ * an addition or deletion.
+ * <p>
+ * With a {@link PathGlobFilter}, the path of each {@code Index:} line is kept
+ * as well, and the changes to files that are not counted are skipped.
+ *
+ * @author phwhitin
+ *
+ */
+public class DiffStatOutputStream extends OutputStream {
+
+	private static final int MARKER_LENGTH = 3;
+
+	private static final String INDEX_PREFIX = "Index: ";
+
+	private final PathGlobFilter filter;
+
+	/**
+	 * The line so far if it may be an {@code Index:} line, otherwise null.
+	 */
+	private ByteArrayOutputStream indexLine;
+
+	private boolean isCounting = true;
+
+	private int additions;
+
+	private int deletions;
+
+	private int changedFiles;
+
+	private int column;
+
+	private int first;
+
+	private int run;
+
+	public DiffStatOutputStream() {
+		this(PathGlobFilter.ALL);
+	}
+
+	/**
+	 * @param filter
+	 *            which files are counted
+	 */
+	public DiffStatOutputStream(final PathGlobFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public void write(final int b) {
+
+		if (b == '\n') {
+			endLine();
+			return;
+		}
+
+		if (indexLine != null) {
+			indexLine.write(b);
+		}
+
+		if (column == 0) {
+			first = b;
+			run = 1;
+			column = 1;
+
+			if (b == INDEX_PREFIX.charAt(0) && !filter.isAll()) {
+				indexLine = new ByteArrayOutputStream();
+				indexLine.write(b);
+			}
+
+		} else if (column < MARKER_LENGTH) {
+			if (run == column && b == first) {
+				run++;
+			}
+			column++;
+		}
+
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		for (int i = off; i < off + len; i++) {
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * Counts a last line that was not ended by a line break.
+	 */
+	@Override
+	public void close() {
+		if (column > 0) {
+			endLine();
+		}
+	}
+
+	private void endLine() {
+
+		if (indexLine != null) {
+
+			final String line = new String(indexLine.toByteArray(), StandardCharsets.UTF_8);
+
+			if (line.startsWith(INDEX_PREFIX)) {
+				isCounting = filter.isIncluded(line.substring(INDEX_PREFIX.length()).trim());
+			}
+
+			indexLine = null;
+		}
+
+		if (column > 0 && isCounting) {
+
+			if (first == '-') {
+				if (run == MARKER_LENGTH) {
+					changedFiles++;
+				} else {
+					deletions++;
+				}
+			} else if (first == '+' && run < MARKER_LENGTH) {
+				additions++;
+			}
+
+		}
+
+		column = 0;
+		run = 0;
+	}
+
+	public int getAdditions() {
+		return additions;
+	}
+
+	public int getDeletions() {
+		return deletions;
+	}
+
+	public int getChangedFiles() {
+		return changedFiles;
+	}
+
+}
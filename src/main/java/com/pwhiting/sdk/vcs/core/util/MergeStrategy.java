@@ -0,0 +1,17 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+/**
+ * Represents how merge commits are diffed for line statistics.
+ *
+ * @author phwhitin
+ */
+public enum MergeStrategy {
+
+	/**A merge is diffed against each parent and the results are added up*/
+	ALL_PARENTS,
+	/**A merge is only diffed against its first parent, the branch it was made on*/
+	FIRST_PARENT,
+	/**A merge is logged with no additions, deletions or changed files*/
+	SKIP_MERGES
+
+}
@@ -0,0 +1,223 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Decides which paths of a repository are counted, from glob patterns to
+ * include and exclude. A path is counted if it matches no exclude pattern, and
+ * either there are no include patterns or it matches one of them.
+ * <p>
+ * Paths are relative to the root of the branch and separated by {@code /}.
+ * In a pattern, {@code *} matches within a directory, {@code **} matches
+ * across directories and {@code ?} matches a single character. A pattern
+ * without a {@code /}, such as {@code *.lock}, matches at any depth. A pattern
+ * that matches a directory matches everything in it, so {@code vendor}
+ * excludes every vendor directory.
+ *
+ * @author phwhitin
+ *
+ */
+public final class PathGlobFilter {
+
+	/** Counts every path */
+	public static final PathGlobFilter ALL = new PathGlobFilter(ImmutableList.<String> of(),
+			ImmutableList.<String> of());
+
+	private final List<String> includes;
+
+	private final List<String> excludes;
+
+	private final List<Pattern> includePatterns;
+
+	private final List<Pattern> excludePatterns;
+
+	private final TreeFilter treeFilter = new GlobTreeFilter();
+
+	/**
+	 * @param includes
+	 *            globs of the paths to count, empty to count everything not
+	 *            excluded
+	 * @param excludes
+	 *            globs of the paths to leave out
+	 */
+	public PathGlobFilter(final Collection<String> includes, final Collection<String> excludes) {
+		this.includes = ImmutableList.copyOf(includes);
+		this.excludes = ImmutableList.copyOf(excludes);
+		includePatterns = compile(includes);
+		excludePatterns = compile(excludes);
+	}
+
+	/**
+	 * Checks if a file is counted.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public boolean isIncluded(final String path) {
+		return !matches(excludePatterns, path) && (includePatterns.isEmpty() || matches(includePatterns, path));
+	}
+
+	/**
+	 * Checks if anything in a directory could be counted. Only exclusions are
+	 * looked at, so this may be true for a directory with nothing included.
+	 *
+	 * @param directory
+	 * @return
+	 */
+	public boolean mayInclude(final String directory) {
+		return !matches(excludePatterns, directory);
+	}
+
+	/**
+	 * @return true if every path is counted
+	 */
+	public boolean isAll() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * Gets a filter for tree walks and diffs, so paths that are not counted
+	 * are skipped before their blobs are read.
+	 *
+	 * @return
+	 */
+	public TreeFilter toTreeFilter() {
+		return isAll() ? TreeFilter.ALL : treeFilter;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+
+		if (!(obj instanceof PathGlobFilter)) { return false; }
+
+		final PathGlobFilter other = (PathGlobFilter) obj;
+		return includes.equals(other.includes) && excludes.equals(other.excludes);
+	}
+
+	@Override
+	public int hashCode() {
+		return includes.hashCode() * 31 + excludes.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return isAll() ? "" : "include " + includes + " exclude " + excludes;
+	}
+
+	/**
+	 * Checks the path and each directory above it against the patterns.
+	 */
+	private static boolean matches(final List<Pattern> patterns, final String path) {
+
+		if (patterns.isEmpty()) { return false; }
+
+		for (int end = path.indexOf('/'); end >= 0; end = path.indexOf('/', end + 1)) {
+			if (matchesAny(patterns, path.substring(0, end))) { return true; }
+		}
+
+		return matchesAny(patterns, path);
+	}
+
+	private static boolean matchesAny(final List<Pattern> patterns, final String path) {
+
+		for (final Pattern pattern : patterns) {
+			if (pattern.matcher(path).matches()) { return true; }
+		}
+
+		return false;
+	}
+
+	private static List<Pattern> compile(final Collection<String> globs) {
+
+		final List<Pattern> patterns = Lists.newArrayListWithCapacity(globs.size());
+
+		for (final String glob : globs) {
+			patterns.add(Pattern.compile(toRegex(glob)));
+		}
+
+		return patterns;
+	}
+
+	private static String toRegex(final String glob) {
+
+		String trimmed = glob.trim();
+
+		while (trimmed.endsWith("/")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+
+		final StringBuilder regex = new StringBuilder();
+
+		if (trimmed.startsWith("/")) {
+			trimmed = trimmed.substring(1);
+		} else if (!trimmed.contains("/")) {
+			regex.append("(?:.*/)?");
+		}
+
+		for (int i = 0; i < trimmed.length(); i++) {
+
+			final char c = trimmed.charAt(i);
+
+			if (c == '*' && i + 1 < trimmed.length() && trimmed.charAt(i + 1) == '*') {
+
+				i++;
+
+				// "**/" may also match no directories at all
+				if (i + 1 < trimmed.length() && trimmed.charAt(i + 1) == '/') {
+					i++;
+					regex.append("(?:.*/)?");
+				} else {
+					regex.append(".*");
+				}
+
+			} else if (c == '*') {
+				regex.append("[^/]*");
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+
+		}
+
+		return regex.toString();
+	}
+
+	/**
+	 * Skips whole directories that are excluded, and files that are not
+	 * counted.
+	 */
+	private final class GlobTreeFilter extends TreeFilter {
+
+		@Override
+		public boolean include(final TreeWalk walker) {
+			final String path = walker.getPathString();
+			return walker.isSubtree() ? mayInclude(path) : isIncluded(path);
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return true;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return PathGlobFilter.this.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+/**
+ * Represents how much is worked out about each commit during a sync.
+ *
+ * @author phwhitin
+ */
+public enum StatsMode {
+
+	/**Every commit is diffed for additions, deletions and changed files*/
+	FULL,
+	/**Only commit headers are read, line statistics are marked as not computed*/
+	METADATA_ONLY,
+	/**Only commit headers are read, line statistics are worked out when first asked for*/
+	LAZY
+
+}
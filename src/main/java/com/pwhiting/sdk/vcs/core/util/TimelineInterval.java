@@ -0,0 +1,19 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+/**
+ * Represents how far apart the points of a timeline are.
+ *
+ * @author phwhitin
+ */
+public enum TimelineInterval {
+
+	/**A point for every commit*/
+	COMMIT,
+	/**A point for the last commit of each day*/
+	DAY,
+	/**A point for the last commit of each week*/
+	WEEK,
+	/**A point for the last commit of each month*/
+	MONTH
+
+}
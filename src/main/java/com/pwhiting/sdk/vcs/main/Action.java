@@ -15,6 +15,17 @@ public enum Action {
 			+ "\n    --end=<epoch-time> (Format: YYYY-MM-DDTHH:MM:SS+HH:MM)"
 			+ "\n    --rev-a=<SVN revision> (SVN only, reads information after this rev)"
 			+ "\n    --rev-b=<SVN revision> (SVN only, reads information before this rev)"
+			+ "\n    --svn-replay (SVN only, reads all revisions in one request instead of one diff per revision)"
+			+ "\n    --threads=<count> (number of threads used to diff commits, for SVN also the number of connections)"
+			+ "\n    --author=<pattern> (Git only, only reads commits whose author name or email contains this)"
+			+ "\n    --filter-walk (Git only, skips commits outside --start and --end while reading history)"
+			+ "\n    --include=<globs> (comma separated, only counts lines in files matching one of these, e.g. src/**)"
+			+ "\n    --exclude=<globs> (comma separated, leaves files matching these out of line counts, e.g. *.lock,vendor)"
+			+ "\n    --max-blob-size=<bytes> (Git only, files larger than this count as changed without diffing their lines)"
+			+ "\n    --merges=<all|first-parent|skip> (Git only, which parents merge commits are diffed against, default all)"
+			+ "\n    --first-parent (Git only, only follows the first parent of each commit, like git log --first-parent)"
+			+ "\n    --metadata-only (Git only, counts commits without diffing them for line statistics)"
+			+ "\n    --lazy-stats (Git only, diffs commits for line statistics only once they are shown)"
 			+ "\n    --nocommits (Indicates that only language information should be shown)"
 			+ "\n    --svn-source-only (SVN only, skips files that cloc does not consider source code)"
 			+ "\n    -s (forces the application to treat the url as a SVN repo)"
@@ -1,6 +1,7 @@
 package com.pwhiting.sdk.vcs.main;
 
 import java.io.PrintStream;
+import java.util.Date;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
@@ -10,6 +11,7 @@ import org.tmatesoft.svn.core.SVNException;
 
 import ch.qos.logback.classic.Level;
 
+import com.google.common.collect.Range;
 import com.pwhiting.sdk.vcs.core.AuthorInfoBuilder;
 import com.pwhiting.sdk.vcs.core.BranchInfo;
 import com.pwhiting.sdk.vcs.core.GitRepo;
@@ -78,6 +80,21 @@ public final class Application {
 				.getUsername(), config.getPassword());
 
 		final GitRepo repo = new GitRepo(config.getUrl(), config.getBranch(), false, cp);
+
+		if (config.getThreadCount() != null) {
+			repo.setDiffThreadCount(config.getThreadCount());
+		}
+
+		if (config.getMaxBlobSize() != null) {
+			repo.setMaxDiffBlobSize(config.getMaxBlobSize());
+		}
+
+		repo.setStatsMode(config.getStatsMode());
+		repo.setMergeStrategy(config.getMergeStrategy());
+		repo.setFirstParentWalk(config.shouldFollowFirstParent());
+		repo.setPathFilter(config.getPathFilter());
+		repo.setWalkLimits(config.shouldFilterWalk() ? Util.getAppropriateRange(config.getStart(), config.getEnd())
+				: Range.<Date> all(), config.getAuthor());
 		repo.sync(config.getBranch(), config.shouldGenerateStats(), config.shouldUseCloc());
 
 		if (!(config.getStart() == null && config.getEnd() == null)) {
@@ -110,6 +127,12 @@ public final class Application {
 				.getPassword(), false, false);
 		
 		repo.setLogEntryCacheDisabled(config.svnIgnoreCache);
+		repo.setReplayIngestion(config.shouldSvnReplay());
+		repo.setPathFilter(config.getPathFilter());
+
+		if (config.getThreadCount() != null) {
+			repo.setDiffThreadCount(config.getThreadCount());
+		}
 		
 		repo.sync(config.getBranch(), config.shouldGetLangStats(), config.shouldGenerateStats(), config.getRevA(), config.getRevB());
 
@@ -4,6 +4,9 @@ import java.util.Date;
 
 import org.tmatesoft.svn.core.wc.SVNRevision;
 
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.sdk.vcs.core.util.StatsMode;
 import com.pwhiting.util.ArgParser;
 import com.pwhiting.util.Util;
 
@@ -64,11 +67,29 @@ public class ProgramConfig {
 	boolean forceSvn;
 	
     boolean svnIgnoreCache;
+
+	boolean svnReplay;
 	
 	SVNRevision revA;
 	
 	SVNRevision revB;
 
+	Integer threads;
+
+	Long maxBlobSize;
+
+	StatsMode statsMode = StatsMode.FULL;
+
+	MergeStrategy mergeStrategy = MergeStrategy.ALL_PARENTS;
+
+	boolean firstParent;
+
+	String author;
+
+	boolean filterWalk;
+
+	PathGlobFilter pathFilter = PathGlobFilter.ALL;
+
 	Date start;
 
 	Date end;
@@ -89,6 +110,10 @@ public class ProgramConfig {
 		return svnIgnoreCache;
 	}
 
+	public boolean shouldSvnReplay() {
+		return svnReplay;
+	}
+
 	public SVNRevision getRevA() {
 		return revA;
 	}
@@ -97,6 +122,70 @@ public class ProgramConfig {
 		return revB;
 	}
 
+	/**
+	 * The number of threads to analyze with, or null if not given.
+	 *
+	 * @return
+	 */
+	public Integer getThreadCount() {
+		return threads;
+	}
+
+	/**
+	 * The size in bytes above which files are not line diffed, or null if not
+	 * given.
+	 *
+	 * @return
+	 */
+	public Long getMaxBlobSize() {
+		return maxBlobSize;
+	}
+
+	/**
+	 * The pattern authors must match, or null for any author.
+	 *
+	 * @return
+	 */
+	public String getAuthor() {
+		return author;
+	}
+
+	/**
+	 * Whether the start and end dates limit which commits are read, rather
+	 * than only what is shown.
+	 *
+	 * @return
+	 */
+	public boolean shouldFilterWalk() {
+		return filterWalk;
+	}
+
+	/**
+	 * Which files are counted in line statistics.
+	 *
+	 * @return
+	 */
+	public PathGlobFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	public MergeStrategy getMergeStrategy() {
+		return mergeStrategy;
+	}
+
+	/**
+	 * Whether only the first parent of each commit is followed.
+	 *
+	 * @return
+	 */
+	public boolean shouldFollowFirstParent() {
+		return firstParent;
+	}
+
+	public StatsMode getStatsMode() {
+		return statsMode;
+	}
+
 	public boolean shouldGetLangStats() {
 		return shouldGenerateLangStats;
 	}
@@ -1,6 +1,8 @@
 package com.pwhiting.sdk.vcs.main;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -10,6 +12,10 @@ import org.tmatesoft.svn.core.wc.SVNRevision;
 
 import ch.qos.logback.classic.Level;
 
+import com.google.common.base.Splitter;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.sdk.vcs.core.util.StatsMode;
 import com.pwhiting.util.ArgMapper;
 import com.pwhiting.util.ArgParser;
 import com.pwhiting.util.Util;
@@ -44,8 +50,19 @@ public class ProgramConfigMapper implements ArgMapper<ProgramConfig> {
 		final boolean forceGit = parser.getBoolean("forceGit") || parser.getBoolean("g");
 		final boolean forceSvn = parser.getBoolean("forceSvn") || parser.getBoolean("s");
 		final boolean svnNonSourceSkip = parser.getBoolean("ignore-cache");
+		final boolean svnReplay = parser.getBoolean("svn-replay");
 		final SVNRevision revA = SVNRevision.create(Util.ifNullDefault(parser.getLong("rev-a"), 0L));
 		final SVNRevision revB = parser.getLong("rev-b") != null ? SVNRevision.create(parser.getLong("rev-b")) : SVNRevision.HEAD;
+		final Integer threads = parser.getInt("threads");
+		final Long maxBlobSize = parser.getLong("max-blob-size");
+		final MergeStrategy mergeStrategy = getMergeStrategy(parser.getString("merges"));
+		final boolean firstParent = parser.getBoolean("first-parent");
+		final boolean metadataOnly = parser.getBoolean("metadata-only");
+		final boolean lazyStats = parser.getBoolean("lazy-stats");
+		final String author = parser.getString("author");
+		final boolean filterWalk = parser.getBoolean("filter-walk");
+		final List<String> includes = getList(parser.getString("include"));
+		final List<String> excludes = getList(parser.getString("exclude"));
 		final Date end = getDate(parser.getString("end"));
 		final Date start = getDate(parser.getString("start"));
 
@@ -59,12 +76,45 @@ public class ProgramConfigMapper implements ArgMapper<ProgramConfig> {
 		config.forceSvn = forceSvn;
 		config.shouldGenerateLangStats = generateLangStats;
 		config.svnIgnoreCache = svnNonSourceSkip;
+		config.svnReplay = svnReplay;
 		config.revA = revA;
 		config.revB = revB;
+		config.threads = threads;
+		config.maxBlobSize = maxBlobSize;
+		config.mergeStrategy = mergeStrategy;
+		config.firstParent = firstParent;
+		config.statsMode = metadataOnly ? StatsMode.METADATA_ONLY : lazyStats ? StatsMode.LAZY : StatsMode.FULL;
+		config.author = author;
+		config.filterWalk = filterWalk;
+		config.pathFilter = includes.isEmpty() && excludes.isEmpty() ? PathGlobFilter.ALL : new PathGlobFilter(
+				includes, excludes);
 		
 		return config;
 	}
 
+	private static MergeStrategy getMergeStrategy(final String value) {
+
+		if (value == null) { return MergeStrategy.ALL_PARENTS; }
+
+		switch (value.toLowerCase()) {
+			case "all":
+				return MergeStrategy.ALL_PARENTS;
+			case "first-parent":
+				return MergeStrategy.FIRST_PARENT;
+			case "skip":
+				return MergeStrategy.SKIP_MERGES;
+			default:
+				LOGGER.warn("Unknown merge strategy {}, diffing merges against all parents", value);
+				return MergeStrategy.ALL_PARENTS;
+		}
+
+	}
+
+	private static List<String> getList(final String value) {
+		return value == null ? Collections.<String> emptyList() : Splitter.on(',').trimResults().omitEmptyStrings()
+				.splitToList(value);
+	}
+
 	private Date getDate(final String date) {
 
 		try {
@@ -0,0 +1,233 @@
+package com.pwhiting.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a list of independent inputs through a fixed number of workers and
+ * returns the results in the same order as the inputs, no matter which thread
+ * finished first. A {@link Worker} is only used by one thread at a time, so
+ * workers are free to hold resources that are not thread safe.
+ * <p>
+ * The threads and workers are made on first use and kept across calls to
+ * {@link #process(List)}, so feeding in many small batches does not pay for
+ * them again each time. {@link #close()} releases them. The threads are
+ * daemons, so a pool that is never closed does not keep the JVM running.
+ * <p>
+ * With a thread count of one, everything runs on the calling thread.
+ * Only one call to {@link #process(List)} may run at a time.
+ *
+ * @author phwhitin
+ *
+ * @param <I>
+ *            the input type
+ * @param <O>
+ *            the result type
+ */
+public abstract class OrderedWorkerPool<I, O> implements AutoCloseable {
+
+	private final int threads;
+
+	/**
+	 * Workers not in use, which a thread takes one of or makes a new one.
+	 */
+	private final Deque<Worker<I, O>> idle = new ArrayDeque<Worker<I, O>>();
+
+	private ExecutorService executor;
+
+	protected OrderedWorkerPool(final int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getThreadCount() {
+		return threads;
+	}
+
+	/**
+	 * Creates a worker, which is then used by one thread at a time until the
+	 * pool is closed.
+	 *
+	 * @return a fresh worker
+	 * @throws Exception
+	 */
+	protected abstract Worker<I, O> newWorker() throws Exception;
+
+	/**
+	 * Processes all inputs.
+	 *
+	 * @param inputs
+	 * @return the results, index for index with {@code inputs}
+	 * @throws ExecutionException
+	 *             wrapping the first failure of any worker
+	 */
+	public List<O> process(final List<I> inputs) throws ExecutionException {
+
+		@SuppressWarnings("unchecked")
+		final O[] results = (O[]) new Object[inputs.size()];
+
+		if (threads == 1 || inputs.size() < 2) {
+
+			try {
+				new Drain(inputs, results, new AtomicInteger(), new AtomicBoolean()).call();
+			} catch (final Exception e) {
+				throw new ExecutionException(e);
+			}
+
+			return Arrays.asList(results);
+		}
+
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat(getClass().getSimpleName() + "-%d").build());
+		}
+
+		final int count = Math.min(threads, inputs.size());
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		final List<Future<Void>> futures = Lists.newArrayList();
+
+		for (int i = 0; i < count; i++) {
+			futures.add(executor.submit(new Drain(inputs, results, next, failed)));
+		}
+
+		ExecutionException failure = null;
+
+		// Waits for every thread, even after a failure, so none is still
+		// working when the next call starts
+		for (final Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (final ExecutionException e) {
+				failure = failure == null ? e : failure;
+			} catch (final InterruptedException e) {
+				failed.set(true);
+				Thread.currentThread().interrupt();
+				throw new ExecutionException(e);
+			}
+		}
+
+		if (failure != null) { throw failure; }
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Stops the threads and closes the workers. The pool makes new ones if it
+	 * is used again.
+	 */
+	@Override
+	public void close() {
+
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+
+		synchronized (idle) {
+			while (!idle.isEmpty()) {
+				idle.pop().close();
+			}
+		}
+
+	}
+
+	private Worker<I, O> takeWorker() throws Exception {
+
+		synchronized (idle) {
+			if (!idle.isEmpty()) { return idle.pop(); }
+		}
+
+		return newWorker();
+	}
+
+	private void giveBack(final Worker<I, O> worker) {
+		synchronized (idle) {
+			idle.push(worker);
+		}
+	}
+
+	/**
+	 * Does the actual work for a single thread.
+	 *
+	 * @param <I>
+	 * @param <O>
+	 */
+	public interface Worker<I, O> {
+
+		O process(I input) throws Exception;
+
+		/**
+		 * Releases whatever the worker is holding. Called when the pool is
+		 * closed, or when the worker failed.
+		 */
+		void close();
+
+	}
+
+	/**
+	 * Pulls inputs off the shared index until there are none left.
+	 */
+	private class Drain implements Callable<Void> {
+
+		private final List<I> inputs;
+		private final O[] results;
+		private final AtomicInteger next;
+		private final AtomicBoolean failed;
+
+		Drain(final List<I> inputs, final O[] results, final AtomicInteger next, final AtomicBoolean failed) {
+			this.inputs = inputs;
+			this.results = results;
+			this.next = next;
+			this.failed = failed;
+		}
+
+		@Override
+		public Void call() throws Exception {
+
+			Worker<I, O> worker = null;
+
+			try {
+
+				worker = takeWorker();
+
+				int i;
+				while (!failed.get() && (i = next.getAndIncrement()) < inputs.size()) {
+					results[i] = worker.process(inputs.get(i));
+				}
+
+			} catch (final Exception e) {
+
+				failed.set(true);
+
+				// A worker that failed may be left in a bad state
+				if (worker != null) {
+					worker.close();
+					worker = null;
+				}
+
+				throw e;
+
+			} finally {
+				if (worker != null) {
+					giveBack(worker);
+				}
+			}
+
+			return null;
+		}
+
+	}
+
+}
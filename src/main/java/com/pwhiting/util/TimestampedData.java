@@ -0,0 +1,16 @@
+package com.pwhiting.util;
+
+/**
+ * Indicates data that happened at a single point in time.
+ *
+ * @author phwhitin
+ *
+ */
+public interface TimestampedData extends DateLimitedData {
+
+	/**
+	 * @return when this happened, in milliseconds since the epoch
+	 */
+	long getTime();
+
+}
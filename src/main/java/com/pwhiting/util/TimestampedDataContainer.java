@@ -0,0 +1,199 @@
+package com.pwhiting.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+
+/**
+ * A {@link DateLimitedDataContainer} whose entries are kept in time order, so
+ * limiting it to a date range is a binary search and the limited data is a
+ * view of the full data rather than a copy. Entries with the same time keep
+ * the order they were added in.
+ * <p>
+ * As the entries are ordered, the first and last entries give the time span
+ * of the container, which is checked before searching when the container
+ * itself is tested against a date range.
+ * <p>
+ * The lists returned by {@link #getData()} can not be modified, use
+ * {@link #add(TimestampedData)} or {@link #addAll(Collection)} instead.
+ *
+ * @author phwhitin
+ *
+ * @param <T>
+ */
+public class TimestampedDataContainer<T extends TimestampedData> extends DateLimitedDataContainer<T> implements
+		DateLimitedData {
+
+	private static final Comparator<TimestampedData> ORDER = new Comparator<TimestampedData>() {
+
+		@Override
+		public int compare(final TimestampedData p1, final TimestampedData p2) {
+			return Long.compare(p1.getTime(), p2.getTime());
+		}
+
+	};
+
+	public TimestampedDataContainer() {
+		this(new ArrayList<T>());
+	}
+
+	/**
+	 * @param data
+	 *            the entries, which are sorted in place
+	 */
+	public TimestampedDataContainer(final List<T> data) {
+		super(data);
+		Collections.sort(this.data, ORDER);
+	}
+
+	/**
+	 * Adds the entry in time order, after any with the same time.
+	 */
+	@Override
+	public boolean add(final T t) {
+
+		data.add(indexAfter(t.getTime(), true), t);
+
+		if (isLimited()) {
+			limitToDateRange(dateRange);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the entries in one go, sorting at most once rather than placing
+	 * each one. Entries with the same time keep the order they were added in.
+	 *
+	 * @param entries
+	 * @return true if there was anything to add
+	 */
+	public boolean addAll(final Collection<? extends T> entries) {
+
+		if (entries.isEmpty()) { return false; }
+
+		final int start = Math.max(0, data.size() - 1);
+		data.addAll(entries);
+
+		for (int i = start + 1; i < data.size(); i++) {
+			if (data.get(i).getTime() < data.get(i - 1).getTime()) {
+				Collections.sort(data, ORDER);
+				break;
+			}
+		}
+
+		if (isLimited()) {
+			limitToDateRange(dateRange);
+		}
+
+		return true;
+	}
+
+	@Override
+	public List<T> getData() {
+		return Collections.unmodifiableList(super.getData());
+	}
+
+	/**
+	 * Unlike its parent, this never has to look at the entries themselves.
+	 */
+	@Override
+	public DateLimitedDataContainer<T> includeAll() {
+		this.limitedData = Lists.newArrayList();
+		this.dateRange = Range.all();
+		return this;
+	}
+
+	@Override
+	public void limitToDateRange(final Range<Date> dateRange) {
+
+		final int from = lowerIndex(dateRange);
+
+		this.dateRange = dateRange;
+		this.limitedData = data.subList(from, Math.max(from, upperIndex(dateRange)));
+	}
+
+	@Override
+	public boolean isInDateRange(final Range<Date> dateRange) {
+
+		if (data.isEmpty()) { return false; }
+
+		if (!isAboveLower(data.get(data.size() - 1).getTime(), dateRange)
+				|| !isBelowUpper(data.get(0).getTime(), dateRange)) { return false; }
+
+		return lowerIndex(dateRange) < upperIndex(dateRange);
+	}
+
+	/**
+	 * @return index of the first entry inside the lower bound of the range
+	 */
+	private int lowerIndex(final Range<Date> dateRange) {
+
+		if (!dateRange.hasLowerBound()) { return 0; }
+
+		return indexAfter(dateRange.lowerEndpoint().getTime(), dateRange.lowerBoundType() == BoundType.OPEN);
+	}
+
+	/**
+	 * @return index of the first entry past the upper bound of the range
+	 */
+	private int upperIndex(final Range<Date> dateRange) {
+
+		if (!dateRange.hasUpperBound()) { return data.size(); }
+
+		return indexAfter(dateRange.upperEndpoint().getTime(), dateRange.upperBoundType() == BoundType.CLOSED);
+	}
+
+	/**
+	 * Finds the first entry after a time.
+	 *
+	 * @param time
+	 * @param skipEqual
+	 *            if entries at exactly this time count as before it
+	 * @return the index, or the size if there is no such entry
+	 */
+	private int indexAfter(final long time, final boolean skipEqual) {
+
+		int low = 0;
+		int high = data.size();
+
+		while (low < high) {
+
+			final int mid = (low + high) >>> 1;
+			final long midTime = data.get(mid).getTime();
+
+			if (midTime < time || skipEqual && midTime == time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+
+		}
+
+		return low;
+	}
+
+	private static boolean isAboveLower(final long time, final Range<Date> dateRange) {
+
+		if (!dateRange.hasLowerBound()) { return true; }
+
+		final long lower = dateRange.lowerEndpoint().getTime();
+		return dateRange.lowerBoundType() == BoundType.CLOSED ? time >= lower : time > lower;
+	}
+
+	private static boolean isBelowUpper(final long time, final Range<Date> dateRange) {
+
+		if (!dateRange.hasUpperBound()) { return true; }
+
+		final long upper = dateRange.upperEndpoint().getTime();
+		return dateRange.upperBoundType() == BoundType.CLOSED ? time <= upper : time < upper;
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.jgit.diff.RawText;
+import org.junit.Test;
+
+/**
+ * Checks that streaming a blob counts the same lines as loading it into a
+ * {@link RawText} did.
+ *
+ * @author phwhitin
+ *
+ */
+public class BlobLineCounterTest {
+
+	@Test
+	public void testTrailingNewline() throws Exception {
+		assertSameAsRawText("one\ntwo\nthree\n");
+		assertSameAsRawText("\n");
+		assertSameAsRawText("\n\n\n");
+		assertSameAsRawText("windows\r\nlines\r\n");
+	}
+
+	@Test
+	public void testNoTrailingNewline() throws Exception {
+		assertSameAsRawText("one\ntwo\nthree");
+		assertSameAsRawText("one");
+		assertSameAsRawText("\n\nlast");
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertSameAsRawText("");
+		assertEquals(0, BlobLineCounter.countLines(new ByteArrayInputStream(new byte[0])));
+	}
+
+	@Test
+	public void testBinary() throws Exception {
+
+		assertSameAsRawText("text\0more\n");
+
+		final byte[] nulNearEnd = lines(7999 / 8);
+		nulNearEnd[7990] = '\0';
+		assertSameAsRawText(nulNearEnd);
+		assertEquals(0, count(nulNearEnd));
+
+		// Past the first 8000 bytes, a NUL does not make it binary
+		final byte[] nulLate = lines(2000);
+		nulLate[9000] = '\0';
+		assertSameAsRawText(nulLate);
+		assertEquals(2000, count(nulLate));
+	}
+
+	@Test
+	public void testAcrossBuffers() throws Exception {
+
+		final byte[] content = lines(5000);
+		assertSameAsRawText(content);
+
+		// A line break falling on the end of a read
+		for (final int length : new int[] { 8191, 8192, 8193, 16384 }) {
+			assertSameAsRawText(Arrays.copyOf(content, length));
+		}
+
+	}
+
+	private static void assertSameAsRawText(final String content) throws IOException {
+		assertSameAsRawText(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void assertSameAsRawText(final byte[] content) throws IOException {
+		final int expected = RawText.isBinary(content) ? 0 : new RawText(content).size();
+		assertEquals(expected, count(content));
+	}
+
+	private static int count(final byte[] content) throws IOException {
+		return BlobLineCounter.countLines(new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * @param count
+	 * @return lines of eight bytes each
+	 */
+	private static byte[] lines(final int count) {
+
+		final StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			builder.append(String.format("%07d\n", i));
+		}
+
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Checks that commits come back out of the store as they went in, however
+ * their ids are packed and however much the store has grown.
+ *
+ * @author phwhitin
+ *
+ */
+public class CommitStoreTest {
+
+	private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+
+	@Test
+	public void testIdKinds() {
+
+		final CommitStore store = new CommitStore();
+
+		final int sha = add(store, SHA);
+		final int upper = add(store, SHA.toUpperCase());
+		final int number = add(store, "42");
+		final int padded = add(store, "042");
+		final int text = add(store, "tag-1");
+
+		assertEquals(5, store.size());
+		assertEquals(sha, store.find(SHA));
+		assertEquals(upper, store.find(SHA.toUpperCase()));
+		assertEquals(number, store.find("42"));
+		assertEquals(padded, store.find("042"));
+		assertEquals(text, store.find("tag-1"));
+
+		assertEquals(SHA, store.getId(sha));
+		assertEquals(SHA.toUpperCase(), store.getId(upper));
+		assertEquals("42", store.getId(number));
+		assertEquals("042", store.getId(padded));
+		assertEquals("tag-1", store.getId(text));
+
+		assertEquals(-1, store.find("43"));
+		assertEquals(-1, store.find("never-added"));
+		assertEquals(-1, store.find(SHA.replace('0', 'f')));
+	}
+
+	/**
+	 * An id in the string table packs to its index there, so it must not be
+	 * mixed up with the revision number of the same value.
+	 */
+	@Test
+	public void testStringIndexDoesNotMatchNumber() {
+
+		final CommitStore store = new CommitStore();
+
+		for (int i = 0; i < 10; i++) {
+			add(store, "name-" + i);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			add(store, Integer.toString(i));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, store.find("name-" + i));
+			assertEquals(10 + i, store.find(Integer.toString(i)));
+			assertEquals(Integer.toString(i), store.getId(10 + i));
+		}
+
+	}
+
+	@Test
+	public void testGrowth() {
+
+		final CommitStore store = new CommitStore(1);
+		final int count = 5000;
+
+		for (int i = 0; i < count; i++) {
+			final int row = store.add(sha(i), i * 1000L, i % 7, i, i * 2, i % 10 == 0, "message " + i, "committer "
+					+ i % 3);
+			assertEquals(i, row);
+		}
+
+		assertEquals(count, store.size());
+
+		for (int i = 0; i < count; i++) {
+
+			final int row = store.find(sha(i));
+
+			assertEquals(i, row);
+			assertEquals(sha(i), store.getId(row));
+			assertEquals(i * 1000L, store.getTime(row));
+			assertEquals(i % 7, store.getChangedFiles(row));
+			assertEquals(i, store.getAdditions(row));
+			assertEquals(i * 2, store.getDeletions(row));
+			assertEquals(i % 10 == 0, store.isMergeCommit(row));
+			assertEquals("message " + i, store.getMessage(row));
+			assertEquals("committer " + i % 3, store.getCommitter(row));
+		}
+
+	}
+
+	@Test
+	public void testLineStats() {
+
+		final CommitStore store = new CommitStore();
+		final int row = store.add(Commit.withoutLineStats(SHA, new Date(1000L), false, "message"));
+
+		assertFalse(store.hasLineStats(row));
+		assertEquals(0, store.getAdditions(row));
+
+		store.setLineStats(row, 3, 4, 2, true);
+
+		assertTrue(store.hasLineStats(row));
+		assertTrue(store.hasSkippedFiles(row));
+		assertEquals(3, store.getAdditions(row));
+		assertEquals(4, store.getDeletions(row));
+		assertEquals(2, store.getChangedFiles(row));
+		assertEquals(1, store.getFilledCount());
+		assertEquals(row, store.getFilledRow(0));
+
+		store.clearLineStats(row);
+
+		assertFalse(store.hasLineStats(row));
+		assertFalse(store.hasSkippedFiles(row));
+		assertEquals(0, store.getDeletions(row));
+	}
+
+	@Test
+	public void testStandaloneCommit() {
+
+		final Commit commit = new Commit(SHA, new Date(5000L), 2, 10, 3, true, "message");
+		final CommitStore store = new CommitStore();
+		final Commit view = store.get(store.add(commit));
+
+		assertEquals(commit.getId(), view.getId());
+		assertEquals(commit.getTime(), view.getTime());
+		assertEquals(commit.getChangedFiles(), view.getChangedFiles());
+		assertEquals(commit.getAdditions(), view.getAdditions());
+		assertEquals(commit.getDeletions(), view.getDeletions());
+		assertEquals(commit.getMessage(), view.getMessage());
+		assertTrue(view.isMergeCommit());
+		assertTrue(view.equals(store.get(view.getRow())));
+		assertFalse(view.equals(commit));
+	}
+
+	private static int add(final CommitStore store, final String id) {
+		return store.add(id, 0L, 0, 0, 0, false, "", null);
+	}
+
+	private static String sha(final int i) {
+		return String.format("%040x", i * 2654435761L);
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+
+/**
+ * Checks lookups and totals of the time index against adding up the commits
+ * one by one, with commits logged out of order and statistics filled in or
+ * cleared between lookups.
+ *
+ * @author phwhitin
+ *
+ */
+public class CommitTimeIndexTest {
+
+	/**
+	 * The rows added to each index, to add up by hand.
+	 */
+	private final Map<CommitTimeIndex, List<Integer>> rows = Maps.newHashMap();
+
+	@Test
+	public void testOutOfOrder() {
+
+		final CommitStore store = new CommitStore();
+		final CommitTimeIndex index = new CommitTimeIndex(store);
+
+		for (final long time : new long[] { 30, 10, 50, 20, 40 }) {
+			add(index, store.add("r" + time, time, 1, (int) time, 1, false, "", null));
+		}
+
+		assertNull(index.getCommitAt(new Date(9)));
+		assertEquals("r10", index.getCommitAt(new Date(10)).getId());
+		assertEquals("r20", index.getCommitAt(new Date(29)).getId());
+		assertEquals("r50", index.getCommitAt(new Date(1000)).getId());
+
+		assertTotals(store, index, Range.<Date> all());
+		assertTotals(store, index, Range.closed(new Date(20), new Date(40)));
+		assertTotals(store, index, Range.open(new Date(20), new Date(40)));
+
+		// Older again after the lookup sorted it
+		add(index, store.add("r5", 5L, 1, 5, 1, false, "", null));
+
+		assertEquals("r5", index.getCommitAt(new Date(9)).getId());
+		assertTotals(store, index, Range.atMost(new Date(20)));
+	}
+
+	@Test
+	public void testEqualTimesKeepOrder() {
+
+		final CommitStore store = new CommitStore();
+		final CommitTimeIndex index = new CommitTimeIndex(store);
+
+		add(index, store.add("a", 20L, 0, 0, 0, false, "", null));
+		add(index, store.add("b", 10L, 0, 0, 0, false, "", null));
+		add(index, store.add("c", 20L, 0, 0, 0, false, "", null));
+
+		// The last one logged of those made at that time
+		assertEquals("c", index.getCommitAt(new Date(20)).getId());
+		assertEquals("b", index.getCommitAt(new Date(19)).getId());
+	}
+
+	@Test
+	public void testRandomRanges() {
+
+		final Random random = new Random(7);
+		final CommitStore store = new CommitStore();
+		final CommitTimeIndex index = new CommitTimeIndex(store);
+
+		for (int i = 0; i < 500; i++) {
+			add(index, store.add("r" + i, random.nextInt(200), random.nextInt(5), random.nextInt(100), random
+					.nextInt(100), false, "", null));
+		}
+
+		for (int i = 0; i < 200; i++) {
+			final long a = random.nextInt(220) - 10;
+			final long b = a + random.nextInt(100);
+			assertTotals(store, index, Range.closedOpen(new Date(a), new Date(b)));
+		}
+
+	}
+
+	@Test
+	public void testStatsFilledAndCleared() {
+
+		final Random random = new Random(11);
+		final CommitStore store = new CommitStore();
+		final CommitTimeIndex index = new CommitTimeIndex(store);
+		final CommitTimeIndex other = new CommitTimeIndex(store);
+
+		for (int i = 0; i < 300; i++) {
+			final int row = store.add(Commit.withoutLineStats("r" + i, new Date(random.nextInt(1000)), false, ""));
+			add(i % 2 == 0 ? index : other, row);
+		}
+
+		store.setLineStatsLoader(new CommitStore.LineStatsLoader() {
+
+			@Override
+			public void load(final CommitStore loading, final int[] rows) {
+				for (final int row : rows) {
+					loading.setLineStats(row, row % 13, row % 7, 1, false);
+				}
+			}
+
+		});
+
+		// Each lookup fills in part of the store, under both indexes
+		for (int i = 0; i < 20; i++) {
+			final long from = 950 - i * 50;
+			assertTotals(store, index, Range.atLeast(new Date(from)));
+			assertTotals(store, other, Range.closed(new Date(from / 2), new Date(from)));
+		}
+
+		store.clearLineStats(store.find("r0"));
+		store.setLineStats(store.find("r2"), 100, 100, 1, false);
+
+		assertTotals(store, index, Range.<Date> all());
+		assertTotals(store, other, Range.<Date> all());
+	}
+
+	/**
+	 * Compares the index's totals with adding up every commit of the index in
+	 * the range, after the lookup has filled in any statistics.
+	 */
+	private void assertTotals(final CommitStore store, final CommitTimeIndex index, final Range<Date> range) {
+
+		final CommitTotals totals = index.getTotals(range);
+
+		int commits = 0;
+		int additions = 0;
+		int deletions = 0;
+		int changedFiles = 0;
+
+		for (final int row : rows.get(index)) {
+			if (range.contains(new Date(store.getTime(row)))) {
+				commits++;
+				additions += store.getAdditions(row);
+				deletions += store.getDeletions(row);
+				changedFiles += store.getChangedFiles(row);
+			}
+		}
+
+		assertEquals(commits, totals.getCommitCount());
+		assertEquals(additions, totals.getAdditions());
+		assertEquals(deletions, totals.getDeletions());
+		assertEquals(changedFiles, totals.getChangedFiles());
+	}
+
+	private void add(final CommitTimeIndex index, final int row) {
+
+		if (!rows.containsKey(index)) {
+			rows.put(index, Lists.<Integer> newArrayList());
+		}
+
+		rows.get(index).add(row);
+		index.add(row);
+	}
+
+}
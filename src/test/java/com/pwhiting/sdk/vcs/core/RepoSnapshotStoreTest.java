@@ -0,0 +1,173 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.pwhiting.sdk.vcs.core.util.MergeStrategy;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+
+/**
+ * Checks that a saved snapshot restores the same branches and commits, and
+ * that snapshots it can not trust are ignored.
+ *
+ * @author phwhitin
+ *
+ */
+public class RepoSnapshotStoreTest {
+
+	private static final String BRANCH = "refs/heads/master";
+
+	private static final String HEAD = "0123456789abcdef0123456789abcdef01234567";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snapshotFile;
+
+	private RepoInfo saved;
+
+	@Before
+	public void preConfig() throws IOException {
+
+		snapshotFile = new File(folder.getRoot(), "repo.snapshot");
+
+		saved = new RepoInfo("test");
+		saved.setPathFilter(new PathGlobFilter(ImmutableList.of("src"), ImmutableList.of("*.lock")));
+		saved.setMergeStrategy(MergeStrategy.FIRST_PARENT);
+		saved.setFirstParentWalk(true);
+
+		final BranchInfo bi = saved.getBranchInfo(BRANCH);
+		final CommitterInfo ci = bi.getAuthorInfo("Ann", "ann@example.com", "Ann", "ann@example.com");
+
+		final Commit skipped = new Commit("3", new Date(3000L), 2, 5, 1, false, "binary too");
+		skipped.markSkippedFiles();
+
+		bi.addCommits(ci, Arrays.asList(new Commit("1", new Date(1000L), 1, 10, 2, true, "first", "Ann"), Commit
+				.withoutLineStats("2", new Date(2000L), false, "metadata only"), skipped));
+		bi.setMostRecentCommit(HEAD);
+
+		new RepoSnapshotStore(snapshotFile).save(saved);
+	}
+
+	@Test
+	public void testRoundTrip() {
+
+		final RepoInfo loaded = new RepoInfo("test");
+
+		assertTrue(new RepoSnapshotStore(snapshotFile).load(loaded));
+		assertEquals(saved.getPathFilter(), loaded.getPathFilter());
+		assertEquals(MergeStrategy.FIRST_PARENT, loaded.getMergeStrategy());
+		assertTrue(loaded.isFirstParentWalk());
+
+		final BranchInfo bi = loaded.getBranchInfo(BRANCH);
+		assertEquals(HEAD, bi.getMostRecentLoggedCommit());
+		assertEquals(3, bi.getCommitCount());
+		assertTrue(bi.isMissingLineStats());
+
+		final CommitTotals totals = bi.getTotals(Range.<Date> all());
+		final CommitTotals savedTotals = saved.getBranchInfo(BRANCH).getTotals(Range.<Date> all());
+		assertEquals(savedTotals.getAdditions(), totals.getAdditions());
+		assertEquals(savedTotals.getDeletions(), totals.getDeletions());
+		assertEquals(savedTotals.getChangedFiles(), totals.getChangedFiles());
+
+		final List<Commit> commits = bi.getAuthorInfo("Ann", "ann@example.com", "Ann", "ann@example.com")
+				.getAllCommits();
+		assertEquals(3, commits.size());
+
+		final Commit first = commits.get(0);
+		assertEquals("1", first.getId());
+		assertEquals(1000L, first.getTime());
+		assertEquals(10, first.getAdditions());
+		assertEquals(2, first.getDeletions());
+		assertEquals("first", first.getMessage());
+		assertEquals("Ann", first.getCommitter());
+		assertTrue(first.isMergeCommit());
+		assertTrue(first.hasLineStats());
+
+		assertFalse(commits.get(1).hasLineStats());
+		assertFalse(commits.get(1).hasSkippedFiles());
+
+		assertTrue(commits.get(2).hasLineStats());
+		assertTrue(commits.get(2).hasSkippedFiles());
+	}
+
+	@Test
+	public void testOtherVersionIgnored() throws IOException {
+
+		final byte[] raw = unzip(snapshotFile);
+		final ByteBuffer header = ByteBuffer.wrap(raw);
+		header.putInt(4, header.getInt(4) - 1);
+		zip(raw, snapshotFile);
+
+		final RepoInfo loaded = new RepoInfo("test");
+
+		assertFalse(new RepoSnapshotStore(snapshotFile).load(loaded));
+		assertEquals(0, loaded.getBranches().length);
+	}
+
+	@Test
+	public void testTruncatedIgnored() throws IOException {
+
+		final byte[] raw = unzip(snapshotFile);
+		zip(Arrays.copyOf(raw, raw.length - 10), snapshotFile);
+
+		final RepoInfo loaded = new RepoInfo("test");
+
+		assertFalse(new RepoSnapshotStore(snapshotFile).load(loaded));
+		assertEquals(0, loaded.getBranches().length);
+	}
+
+	@Test
+	public void testMissingIgnored() {
+
+		FileUtils.deleteQuietly(snapshotFile);
+
+		assertFalse(new RepoSnapshotStore(snapshotFile).load(new RepoInfo("test")));
+	}
+
+	private static byte[] unzip(final File file) throws IOException {
+		try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+
+	private static void zip(final byte[] raw, final File file) throws IOException {
+
+		final ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+		try (OutputStream out = new GZIPOutputStream(zipped)) {
+			IOUtils.copy(new ByteArrayInputStream(raw), out);
+		}
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(zipped.toByteArray());
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.pwhiting.sdk.vcs.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * A small local Git repository for tests to commit files to, with commit
+ * times set by the test.
+ *
+ * @author phwhitin
+ *
+ */
+final class TestRepo implements AutoCloseable {
+
+	private final Git git;
+
+	private final File directory;
+
+	TestRepo(final File directory) throws GitAPIException {
+		this.directory = directory;
+		git = Git.init().setDirectory(directory).call();
+	}
+
+	Repository getRepository() {
+		return git.getRepository();
+	}
+
+	/**
+	 * Writes a file and stages it.
+	 */
+	TestRepo write(final String path, final String content) throws IOException, GitAPIException {
+		return write(path, content.getBytes("UTF-8"));
+	}
+
+	TestRepo write(final String path, final byte[] content) throws IOException, GitAPIException {
+		FileUtils.writeByteArrayToFile(new File(directory, path), content);
+		git.add().addFilepattern(path).call();
+		return this;
+	}
+
+	TestRepo delete(final String path) throws GitAPIException {
+		git.rm().addFilepattern(path).call();
+		return this;
+	}
+
+	/**
+	 * Commits what is staged.
+	 *
+	 * @param message
+	 * @param seconds
+	 *            the commit time, in seconds since the epoch
+	 * @return the commit
+	 */
+	RevCommit commit(final String message, final long seconds) throws GitAPIException {
+		final PersonIdent ident = new PersonIdent("Tester", "tester@example.com", new Date(seconds * 1000L),
+				TimeZone.getTimeZone("UTC"));
+		return git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+	}
+
+	/**
+	 * Creates a branch at the current commit and switches to it.
+	 */
+	TestRepo branch(final String name) throws GitAPIException {
+		git.checkout().setCreateBranch(true).setName(name).call();
+		return this;
+	}
+
+	TestRepo checkout(final String name) throws GitAPIException {
+		git.checkout().setName(name).call();
+		return this;
+	}
+
+	/**
+	 * Merges the branch into the current one, always with a merge commit.
+	 */
+	RevCommit merge(final String name, final long seconds) throws IOException, GitAPIException {
+		git.merge().include(getRepository().resolve(name)).setFastForward(FastForwardMode.NO_FF).setCommit(false)
+				.call();
+		return commit("Merge " + name, seconds);
+	}
+
+	@Override
+	public void close() {
+		git.close();
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.pwhiting.sdk.vcs.core.TreeStatsCache.TreeStats;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.sdk.vcs.core.util.TimelineInterval;
+
+/**
+ * Checks each point of a timeline against a snapshot of that commit's tree,
+ * and which commits are points for each interval.
+ *
+ * @author phwhitin
+ *
+ */
+public class TimelineBuilderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DateTimeZone zone;
+
+	private TestRepo repo;
+
+	private RevCommit c1, c2, c3, c4, c5, merge, c6;
+
+	@Before
+	public void preConfig() throws Exception {
+
+		// Days, weeks and months start at midnight in the default zone
+		zone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.UTC);
+
+		repo = new TestRepo(folder.newFolder("repo"));
+
+		repo.write("pom.xml", "<project>\n</project>\n");
+		repo.write("src/A.java", "class A {\n}\n");
+		c1 = repo.commit("c1", time(2015, 1, 5, 10));
+
+		repo.write("src/B.java", "class B {\n\n}\n");
+		repo.write("lib/data.bin", new byte[] { 1, 0, 2, '\n' });
+		c2 = repo.commit("c2", time(2015, 1, 5, 15));
+
+		repo.write("src/A.java", "class A {\n\tint a;\n}\n");
+		repo.write("web/pom.xml", "<project>\n\n</project>\n");
+		c3 = repo.commit("c3", time(2015, 1, 7, 10));
+
+		repo.delete("src/B.java");
+		c4 = repo.commit("c4", time(2015, 1, 13, 10));
+
+		repo.branch("feature");
+		repo.write("feature/F.java", "class F {\n}\n");
+		repo.commit("f1", time(2015, 1, 14, 10));
+		repo.write("feature/G.py", "g = 1\n");
+		repo.delete("lib/data.bin");
+		repo.commit("f2", time(2015, 1, 20, 10));
+
+		repo.checkout("master");
+		repo.write("src/C.java", "class C {}\n");
+		c5 = repo.commit("c5", time(2015, 1, 20, 11));
+
+		merge = repo.merge("feature", time(2015, 1, 21, 10));
+
+		repo.write("src/C.java", "class C {\n}\n");
+		c6 = repo.commit("c6", time(2015, 2, 2, 10));
+	}
+
+	@After
+	public void cleanUp() {
+		repo.close();
+		DateTimeZone.setDefault(zone);
+	}
+
+	@Test
+	public void testPointsMatchSnapshots() throws Exception {
+
+		final Map<RevCommit, TreeStats> points = new TimelineBuilder(repo.getRepository(), 2, PathGlobFilter.ALL)
+				.build(c6, TimelineInterval.COMMIT);
+
+		// Commits only on the feature branch are part of the merge's point
+		assertEquals(Lists.newArrayList(c1, c2, c3, c4, c5, merge, c6), Lists.newArrayList(points.keySet()));
+		assertEquals(2, merge.getParentCount());
+
+		for (final Map.Entry<RevCommit, TreeStats> entry : points.entrySet()) {
+			TreeStatsCacheTest.assertSameStats(new TreeStatsCache().compute(repo.getRepository(), entry.getKey()
+					.getTree(), 1), entry.getValue());
+		}
+
+	}
+
+	@Test
+	public void testFilteredPointsMatchSnapshots() throws Exception {
+
+		final PathGlobFilter filter = new PathGlobFilter(ImmutableList.<String> of(), ImmutableList.of("feature",
+				"*.bin"));
+		final Map<RevCommit, TreeStats> points = new TimelineBuilder(repo.getRepository(), 1, filter).build(c6,
+				TimelineInterval.COMMIT);
+
+		for (final Map.Entry<RevCommit, TreeStats> entry : points.entrySet()) {
+			TreeStatsCacheTest.assertSameStats(new TreeStatsCache(filter).compute(repo.getRepository(), entry
+					.getKey().getTree(), 1), entry.getValue());
+		}
+
+	}
+
+	@Test
+	public void testIntervals() throws Exception {
+
+		assertPoints(TimelineInterval.DAY, c2, c3, c4, c5, merge, c6);
+		assertPoints(TimelineInterval.WEEK, c3, c4, merge, c6);
+		assertPoints(TimelineInterval.MONTH, merge, c6);
+
+		final Map<RevCommit, TreeStats> months = new TimelineBuilder(repo.getRepository(), 1, PathGlobFilter.ALL)
+				.build(c6, TimelineInterval.MONTH);
+
+		// The last commit of the month, with everything before it
+		TreeStatsCacheTest.assertSameStats(new TreeStatsCache().compute(repo.getRepository(), merge.getTree(), 1),
+				months.get(merge));
+	}
+
+	@Test
+	public void testBranchTimeline() throws Exception {
+
+		final GitRepo git = new GitRepo(repo.getRepository().getDirectory().getParent(), null, null, false, folder
+				.newFolder("clone"));
+
+		try {
+
+			final List<HistoryViewer> timeline = git.getRepoStatistics().getBranchInfo("refs/heads/master")
+					.getTimeline(TimelineInterval.WEEK);
+
+			assertEquals(4, timeline.size());
+			assertEquals(new Date(c3.getCommitTime() * 1000L), timeline.get(0).getDate());
+			assertEquals(new Date(c6.getCommitTime() * 1000L), timeline.get(3).getDate());
+			assertEquals(5, timeline.get(0).getFileCount());
+			assertEquals(6, timeline.get(3).getFileCount());
+
+			// Not on the remote
+			assertTrue(git.getRepoStatistics().getBranchInfo("refs/heads/missing").getTimeline(
+					TimelineInterval.WEEK).isEmpty());
+
+		} finally {
+			git.close();
+		}
+
+	}
+
+	private void assertPoints(final TimelineInterval interval, final RevCommit... expected) throws Exception {
+		assertEquals(Lists.newArrayList(expected), Lists.newArrayList(new TimelineBuilder(repo.getRepository(), 1,
+				PathGlobFilter.ALL).build(c6, interval).keySet()));
+	}
+
+	private static long time(final int year, final int month, final int day, final int hour) {
+		return new DateTime(year, month, day, hour, 0, DateTimeZone.UTC).getMillis() / 1000L;
+	}
+
+}
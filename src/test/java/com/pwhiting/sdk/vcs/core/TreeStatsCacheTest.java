@@ -0,0 +1,183 @@
+package com.pwhiting.sdk.vcs.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.pwhiting.sdk.vcs.core.TreeStatsCache.TreeStats;
+import com.pwhiting.sdk.vcs.core.util.PathGlobFilter;
+import com.pwhiting.util.lang.CodeSniffer;
+import com.pwhiting.util.lang.CodeSniffer.Language;
+
+/**
+ * Checks that statistics rolled up from cached subtrees are the same as
+ * counting every file of the tree, with and without a path filter.
+ *
+ * @author phwhitin
+ *
+ */
+public class TreeStatsCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestRepo repo;
+
+	private final List<RevCommit> commits = Lists.newArrayList();
+
+	@Before
+	public void preConfig() throws Exception {
+
+		repo = new TestRepo(folder.newFolder("repo"));
+
+		repo.write("pom.xml", "<project>\n</project>\n");
+		repo.write("core/pom.xml", "<project>\n\n</project>\n");
+		repo.write("core/src/A.java", "class A {\n}\n");
+		repo.write("core/src/deep/B.java", "class B {\n\n\n}");
+		repo.write("lib/data.bin", new byte[] { 1, 0, 2, '\n' });
+		repo.write("README.md", "# Readme\n");
+		commits.add(repo.commit("first", 1000));
+
+		// The same subtree under another path
+		repo.write("copy/src/A.java", "class A {\n}\n");
+		repo.write("copy/src/deep/B.java", "class B {\n\n\n}");
+		repo.write("core/src/A.java", "class A {\n\tint a;\n}\n");
+		commits.add(repo.commit("second", 2000));
+
+		repo.delete("README.md");
+		repo.write("core/src/C.java", "class C {}\n");
+		commits.add(repo.commit("third", 3000));
+	}
+
+	@After
+	public void cleanUp() {
+		repo.close();
+	}
+
+	@Test
+	public void testColdMatchesWalk() throws IOException {
+
+		for (final RevCommit commit : commits) {
+			assertSameStats(walk(commit.getTree(), PathGlobFilter.ALL), new TreeStatsCache().compute(repo
+					.getRepository(), commit.getTree(), 2));
+		}
+
+	}
+
+	@Test
+	public void testWarmMatchesCold() throws IOException {
+
+		final TreeStatsCache cache = new TreeStatsCache();
+
+		for (final RevCommit commit : Lists.reverse(commits)) {
+			cache.compute(repo.getRepository(), commit.getTree(), 1);
+		}
+
+		final int size = cache.size();
+
+		for (final RevCommit commit : commits) {
+			assertSameStats(walk(commit.getTree(), PathGlobFilter.ALL), cache.compute(repo.getRepository(), commit
+					.getTree(), 1));
+		}
+
+		// Every subtree was already there
+		assertEquals(size, cache.size());
+	}
+
+	/**
+	 * Only a {@code pom.xml} at the top of the tree is a Maven file, so the
+	 * files at the top can not be taken from a cached tree.
+	 */
+	@Test
+	public void testTopLevelLanguage() throws IOException {
+
+		final Map<Language, int[]> languages = new TreeStatsCache().compute(repo.getRepository(),
+				commits.get(0).getTree(), 1).getLanguages();
+
+		assertArrayEquals(new int[] { 1, 2 }, languages.get(Language.MAVEN));
+		assertArrayEquals(new int[] { 1, 3 }, languages.get(Language.XML));
+	}
+
+	@Test
+	public void testFilteredKeysByPath() throws IOException {
+
+		// Leaves out part of the copy, whose subtrees share ids with the core's
+		final PathGlobFilter filter = new PathGlobFilter(ImmutableList.<String> of(), ImmutableList.of("/copy/**/B.java",
+				"*.bin"));
+		final TreeStatsCache cache = new TreeStatsCache(filter);
+
+		// The copy's first commit has the core's tree of the commit before
+		for (int i = 0; i < 2; i++) {
+			for (final RevCommit commit : commits) {
+				assertSameStats(walk(commit.getTree(), filter), cache.compute(repo.getRepository(), commit.getTree(),
+						1));
+			}
+		}
+
+		final RevCommit second = commits.get(1);
+		final Map<String, TreeStats> directories = cache.compute(repo.getRepository(), second.getTree(), 1, 2);
+
+		assertEquals(1, directories.get("copy").getFileCount());
+		assertEquals(3, directories.get("core").getFileCount());
+		assertEquals(0, directories.get("lib").getFileCount());
+	}
+
+	/**
+	 * Counts every file of the tree one by one, by its whole path.
+	 */
+	private TreeStats walk(final ObjectId tree, final PathGlobFilter filter) throws IOException {
+
+		final TreeStats stats = new TreeStats();
+
+		try (ObjectReader reader = repo.getRepository().newObjectReader(); TreeWalk walk = new TreeWalk(reader)) {
+
+			walk.addTree(tree);
+			walk.setRecursive(true);
+
+			while (walk.next()) {
+
+				if (!filter.isIncluded(walk.getPathString())) {
+					continue;
+				}
+
+				final int lines = BlobLineCounter.countLines(reader.open(walk.getObjectId(0), Constants.OBJ_BLOB)
+						.openStream());
+				stats.add(CodeSniffer.detectLanguage(walk.getPathString()), 1, lines);
+			}
+
+		}
+
+		return stats;
+	}
+
+	static void assertSameStats(final TreeStats expected, final TreeStats actual) {
+
+		assertEquals(expected.getFileCount(), actual.getFileCount());
+		assertEquals(expected.getLineCount(), actual.getLineCount());
+		assertEquals(expected.getLanguages().keySet(), actual.getLanguages().keySet());
+
+		for (final Map.Entry<Language, int[]> entry : expected.getLanguages().entrySet()) {
+			assertEquals(entry.getKey().toString(), Arrays.toString(entry.getValue()), Arrays.toString(actual
+					.getLanguages().get(entry.getKey())));
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that cached blob diffs survive being written to disk and read back,
+ * including from a file whose last record was only partly written.
+ *
+ * @author phwhitin
+ *
+ */
+public class BlobDiffCacheTest {
+
+	/** One record on disk: two ids and two counts, after the magic number */
+	private static final int RECORD_SIZE = 2 * 20 + 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReload() throws Exception {
+
+		final File file = new File(folder.getRoot(), "diffs");
+		final BlobDiffCache cache = new BlobDiffCache(file);
+
+		put(cache, 0, 3);
+		cache.flush();
+		put(cache, 3, 5);
+		cache.flush();
+
+		assertEquals(4 + 5L * RECORD_SIZE, file.length());
+
+		final BlobDiffCache reloaded = new BlobDiffCache(file);
+
+		assertEquals(5, reloaded.size());
+		assertCached(reloaded, 0, 5);
+	}
+
+	@Test
+	public void testTruncatedTail() throws Exception {
+
+		final File file = new File(folder.getRoot(), "diffs");
+		final BlobDiffCache cache = new BlobDiffCache(file);
+
+		put(cache, 0, 4);
+		cache.flush();
+
+		// As if the process died while appending the last record
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.setLength(file.length() - RECORD_SIZE / 2);
+		}
+
+		final BlobDiffCache reloaded = new BlobDiffCache(file);
+
+		assertEquals(3, reloaded.size());
+		assertCached(reloaded, 0, 3);
+		assertNull(reloaded.get(id(3, 0), id(3, 1)));
+
+		// The next flush rewrites the file, so later records line up again
+		put(reloaded, 4, 6);
+		reloaded.flush();
+
+		assertEquals(4 + 5L * RECORD_SIZE, file.length());
+
+		final BlobDiffCache again = new BlobDiffCache(file);
+
+		assertEquals(5, again.size());
+		assertCached(again, 0, 3);
+		assertCached(again, 4, 6);
+	}
+
+	@Test
+	public void testUnreadableStartsOver() throws Exception {
+
+		final File file = new File(folder.getRoot(), "diffs");
+
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.writeInt(0x12345678);
+			out.write(new byte[RECORD_SIZE]);
+		}
+
+		final BlobDiffCache cache = new BlobDiffCache(file);
+
+		assertEquals(0, cache.size());
+
+		put(cache, 0, 2);
+		cache.flush();
+
+		assertEquals(2, new BlobDiffCache(file).size());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+
+		final File file = new File(folder.getRoot(), "diffs");
+		final BlobDiffCache cache = new BlobDiffCache(file, 2);
+
+		put(cache, 0, 3);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get(id(0, 0), id(0, 1)));
+		assertCached(cache, 1, 3);
+	}
+
+	private static void put(final BlobDiffCache cache, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			cache.put(id(i, 0), id(i, 1), i, i * 2);
+		}
+	}
+
+	private static void assertCached(final BlobDiffCache cache, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			assertArrayEquals(new int[] { i, i * 2 }, cache.get(id(i, 0), id(i, 1)));
+		}
+	}
+
+	private static ObjectId id(final int i, final int side) {
+		return ObjectId.fromString(String.format("%038x%02x", i, side));
+	}
+
+}
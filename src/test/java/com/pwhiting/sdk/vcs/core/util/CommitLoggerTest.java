@@ -0,0 +1,138 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.pwhiting.sdk.vcs.core.Commit;
+
+/**
+ * Checks that logged commits are found again after the log is reopened, even
+ * when the last write was cut short, and that an old single array log is
+ * imported or, if unreadable, kept aside.
+ *
+ * @author phwhitin
+ *
+ */
+public class CommitLoggerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	private File logFile;
+
+	private File legacyFile;
+
+	@Before
+	public void preConfig() {
+		dir = folder.getRoot();
+		logFile = new File(dir, "logs/commit-log.jsonl");
+		legacyFile = new File(dir, "logs/commit-log.json");
+	}
+
+	@Test
+	public void testReopen() {
+
+		CommitLogger logger = new CommitLogger(dir);
+		for (int i = 1; i <= 100; i++) {
+			logger.addCommitToJsonLog(commit(i));
+		}
+		logger.addCommitToJsonLog(new Commit("5", new Date(0L), 0, 0, 0, false, "duplicate"));
+
+		// Reopening rebuilds the index from the file
+		logger = new CommitLogger(dir);
+		assertEquals("rev 5", logger.getCommit(5).getMessage());
+		assertEquals(42, logger.getCommit(42).getAdditions());
+		assertEquals(new Date(100000L), logger.getCommit(100).getTimestamp());
+		assertNull(logger.getCommit(101));
+	}
+
+	@Test
+	public void testTruncatedTail() throws IOException {
+
+		final CommitLogger logger = new CommitLogger(dir);
+		for (int i = 1; i <= 10; i++) {
+			logger.addCommitToJsonLog(commit(i));
+		}
+
+		final long length = logFile.length();
+
+		// As if the process died while appending a commit
+		try (OutputStream out = new FileOutputStream(logFile, true)) {
+			out.write("{\"id\":\"11\",\"mess".getBytes("UTF-8"));
+		}
+
+		CommitLogger reopened = new CommitLogger(dir);
+
+		assertEquals(length, logFile.length());
+		assertNull(reopened.getCommit(11));
+		assertEquals("rev 10", reopened.getCommit(10).getMessage());
+
+		// The next commit starts on a line of its own
+		reopened.addCommitToJsonLog(commit(11));
+		reopened = new CommitLogger(dir);
+
+		assertEquals("rev 11", reopened.getCommit(11).getMessage());
+		assertEquals("rev 1", reopened.getCommit(1).getMessage());
+	}
+
+	@Test
+	public void testLegacyImport() throws IOException {
+
+		final List<Commit> commits = Lists.newArrayList();
+		for (int i = 1; i <= 5; i++) {
+			commits.add(commit(i));
+		}
+
+		FileUtils.forceMkdir(legacyFile.getParentFile());
+		new ObjectMapper().writeValue(legacyFile, commits);
+
+		final CommitLogger logger = new CommitLogger(dir);
+
+		assertFalse(legacyFile.exists());
+		assertEquals("rev 3", logger.getCommit(3).getMessage());
+
+		// Stays imported once the old log is gone
+		assertEquals("rev 5", new CommitLogger(dir).getCommit(5).getMessage());
+	}
+
+	@Test
+	public void testUnreadableLegacyKept() throws IOException {
+
+		FileUtils.writeStringToFile(legacyFile, "[{\"id\":\"1\",", "UTF-8");
+
+		final CommitLogger logger = new CommitLogger(dir);
+		final File aside = new File(legacyFile.getPath() + ".unreadable");
+
+		assertFalse(legacyFile.exists());
+		assertTrue(aside.exists());
+		assertEquals("[{\"id\":\"1\",", FileUtils.readFileToString(aside, "UTF-8"));
+
+		// The new log still works
+		logger.addCommitToJsonLog(commit(1));
+		assertEquals("rev 1", new CommitLogger(dir).getCommit(1).getMessage());
+	}
+
+	private static Commit commit(final int i) {
+		return new Commit(String.valueOf(i), new Date(i * 1000L), 1, i, 0, false, "rev " + i);
+	}
+
+}
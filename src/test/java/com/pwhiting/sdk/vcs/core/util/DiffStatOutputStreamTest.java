@@ -0,0 +1,132 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Checks that counting a diff as it is written gives the same totals as
+ * splitting the whole diff into lines did.
+ *
+ * @author phwhitin
+ *
+ */
+public class DiffStatOutputStreamTest {
+
+	private static final String DIFF = "Index: src/a.txt\n"
+			+ "===================================================================\n"
+			+ "--- src/a.txt\t(revision 1)\n"
+			+ "+++ src/a.txt\t(revision 2)\n"
+			+ "@@ -1,3 +1,3 @@\n"
+			+ " same\n"
+			+ "-old\n"
+			+ "+new\n"
+			+ "+++ added line that starts like a header\n"
+			+ "--- removed line that starts like a header\n"
+			+ "-\n"
+			+ "+\n"
+			+ "--\n"
+			+ "++\n"
+			+ "Index: docs/b.md\n"
+			+ "===================================================================\n"
+			+ "--- docs/b.md\t(revision 0)\n"
+			+ "+++ docs/b.md\t(revision 2)\n"
+			+ "@@ -0,0 +1,2 @@\n"
+			+ "+one\r\n"
+			+ "+two\r\n";
+
+	@Test
+	public void testSameAsSplit() {
+		assertSameAsSplit(DIFF);
+		assertSameAsSplit("");
+		assertSameAsSplit("\n\n");
+		assertSameAsSplit(" context only\n");
+	}
+
+	@Test
+	public void testLastLineWithoutBreak() {
+		assertSameAsSplit(DIFF + "+last");
+		assertSameAsSplit(DIFF + "-last");
+		assertSameAsSplit("---");
+		assertSameAsSplit("+++");
+	}
+
+	@Test
+	public void testWrittenInPieces() {
+
+		final byte[] bytes = DIFF.getBytes(StandardCharsets.UTF_8);
+		final DiffStatOutputStream out = new DiffStatOutputStream();
+
+		// Splits markers and line breaks across writes
+		for (int i = 0; i < bytes.length; i += 2) {
+			out.write(bytes, i, Math.min(2, bytes.length - i));
+		}
+
+		out.close();
+		assertCounts(splitCounts(DIFF), out);
+	}
+
+	@Test
+	public void testFilter() {
+
+		final DiffStatOutputStream out = new DiffStatOutputStream(new PathGlobFilter(ImmutableList.of("docs"),
+				ImmutableList.<String> of()));
+		final byte[] bytes = DIFF.getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+		out.close();
+
+		// Only the changes after the docs Index line
+		assertEquals(1, out.getChangedFiles());
+		assertEquals(2, out.getAdditions());
+		assertEquals(0, out.getDeletions());
+	}
+
+	private static void assertSameAsSplit(final String diff) {
+
+		final DiffStatOutputStream out = new DiffStatOutputStream();
+		final byte[] bytes = diff.getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+		out.close();
+
+		assertCounts(splitCounts(diff), out);
+	}
+
+	private static void assertCounts(final int[] expected, final DiffStatOutputStream out) {
+		assertEquals(expected[0], out.getAdditions());
+		assertEquals(expected[1], out.getDeletions());
+		assertEquals(expected[2], out.getChangedFiles());
+	}
+
+	/**
+	 * Counts the way the whole diff used to be counted.
+	 *
+	 * @param diff
+	 * @return index reference: 0 = additions, 1 = deletions, 2 = files
+	 *         changed
+	 */
+	private static int[] splitCounts(final String diff) {
+
+		final int[] counts = new int[3];
+
+		for (final String line : diff.split("\n")) {
+
+			if (line.startsWith("---")) {
+				counts[2]++;
+			} else if (line.startsWith("+++")) {
+				// No action needed
+			} else if (line.startsWith("+")) {
+				counts[0]++;
+			} else if (line.startsWith("-")) {
+				counts[1]++;
+			}
+
+		}
+
+		return counts;
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.pwhiting.sdk.vcs.core.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Checks how include and exclude globs match paths.
+ *
+ * @author phwhitin
+ *
+ */
+public class PathGlobFilterTest {
+
+	@Test
+	public void testDoubleStarMatchesNoDirectories() {
+
+		final PathGlobFilter filter = include("src/**/*.java");
+
+		assertTrue(filter.isIncluded("src/A.java"));
+		assertTrue(filter.isIncluded("src/main/A.java"));
+		assertTrue(filter.isIncluded("src/main/java/com/A.java"));
+		assertFalse(filter.isIncluded("test/A.java"));
+		assertFalse(filter.isIncluded("src/A.javax"));
+
+		final PathGlobFilter leading = include("**/build.xml");
+
+		assertTrue(leading.isIncluded("build.xml"));
+		assertTrue(leading.isIncluded("a/b/build.xml"));
+	}
+
+	@Test
+	public void testNoSlashMatchesAnyDepth() {
+
+		final PathGlobFilter filter = exclude("*.lock");
+
+		assertFalse(filter.isIncluded("yarn.lock"));
+		assertFalse(filter.isIncluded("web/app/yarn.lock"));
+		assertTrue(filter.isIncluded("web/app/lock.txt"));
+
+		// A single star stays within a directory
+		assertFalse(include("src/*.java").isIncluded("src/main/A.java"));
+	}
+
+	@Test
+	public void testLeadingSlashAnchorsToRoot() {
+
+		final PathGlobFilter filter = exclude("/build");
+
+		assertFalse(filter.isIncluded("build/out.txt"));
+		assertTrue(filter.isIncluded("web/build/out.txt"));
+
+		final PathGlobFilter unanchored = exclude("build");
+
+		assertFalse(unanchored.isIncluded("build/out.txt"));
+		assertFalse(unanchored.isIncluded("web/build/out.txt"));
+	}
+
+	@Test
+	public void testDirectoryExcludesContents() {
+
+		final PathGlobFilter filter = exclude("vendor/");
+
+		assertFalse(filter.isIncluded("vendor/lib.js"));
+		assertFalse(filter.isIncluded("vendor/deep/down/lib.js"));
+		assertFalse(filter.isIncluded("app/vendor/lib.js"));
+		assertFalse(filter.mayInclude("vendor"));
+		assertTrue(filter.isIncluded("vendors/lib.js"));
+		assertTrue(filter.mayInclude("app"));
+
+		assertFalse(exclude("docs/api").isIncluded("docs/api/index.html"));
+		assertTrue(exclude("docs/api").isIncluded("docs/guide.html"));
+	}
+
+	@Test
+	public void testExcludeWinsOverInclude() {
+
+		final PathGlobFilter filter = new PathGlobFilter(Arrays.asList("src", "*.md"), Arrays.asList(
+				"**/generated", "CHANGELOG.md"));
+
+		assertTrue(filter.isIncluded("src/A.java"));
+		assertTrue(filter.isIncluded("README.md"));
+		assertFalse(filter.isIncluded("src/generated/B.java"));
+		assertFalse(filter.isIncluded("CHANGELOG.md"));
+		assertFalse(filter.isIncluded("lib/C.java"));
+	}
+
+	@Test
+	public void testAll() {
+
+		assertTrue(PathGlobFilter.ALL.isAll());
+		assertTrue(PathGlobFilter.ALL.isIncluded("any/path/at/all"));
+		assertFalse(exclude("a").isAll());
+		assertTrue(exclude("a").equals(exclude("a")));
+		assertFalse(exclude("a").equals(include("a")));
+	}
+
+	private static PathGlobFilter include(final String glob) {
+		return new PathGlobFilter(ImmutableList.of(glob), ImmutableList.<String> of());
+	}
+
+	private static PathGlobFilter exclude(final String glob) {
+		return new PathGlobFilter(ImmutableList.<String> of(), ImmutableList.of(glob));
+	}
+
+}
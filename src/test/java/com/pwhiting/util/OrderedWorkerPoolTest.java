@@ -0,0 +1,207 @@
+package com.pwhiting.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Checks that results come back in input order, and that workers are kept,
+ * dropped after failing and made again after the pool is closed.
+ *
+ * @author phwhitin
+ *
+ */
+public class OrderedWorkerPoolTest {
+
+	@Test
+	public void testOrder() throws Exception {
+
+		final List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < 500; i++) {
+			inputs.add(i);
+		}
+
+		try (TestPool pool = new TestPool(4)) {
+
+			final List<String> results = pool.process(inputs);
+
+			assertEquals("Wrong result count", inputs.size(), results.size());
+			for (int i = 0; i < inputs.size(); i++) {
+				assertEquals("Results out of order", "value-" + i, results.get(i));
+			}
+
+			assertTrue(pool.workers.size() <= 4);
+		}
+
+	}
+
+	@Test
+	public void testSingleThreadRunsInline() throws Exception {
+
+		try (TestPool pool = new TestPool(1)) {
+
+			assertEquals(Arrays.asList("value-1", "value-2", "value-3"), pool.process(Arrays.asList(1, 2, 3)));
+			assertSame(Thread.currentThread(), pool.workers.get(0).thread);
+		}
+
+		// As is a single input, whatever the thread count
+		try (TestPool pool = new TestPool(4)) {
+
+			pool.process(Arrays.asList(1));
+			assertSame(Thread.currentThread(), pool.workers.get(0).thread);
+		}
+
+	}
+
+	@Test
+	public void testFailedWorkerNotReused() throws Exception {
+
+		try (TestPool pool = new TestPool(1)) {
+
+			try {
+				pool.process(Arrays.asList(1, -1, 2));
+				fail("Worker failure not thrown");
+			} catch (final ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+
+			final TestWorker failed = pool.workers.get(0);
+			assertTrue(failed.closed);
+
+			assertEquals(Arrays.asList("value-3"), pool.process(Arrays.asList(3)));
+			assertEquals(2, pool.workers.size());
+			assertEquals(2, failed.processed);
+		}
+
+	}
+
+	@Test
+	public void testFailureWithThreads() throws Exception {
+
+		final List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < 200; i++) {
+			inputs.add(i == 100 ? -1 : i);
+		}
+
+		try (TestPool pool = new TestPool(3)) {
+
+			try {
+				pool.process(inputs);
+				fail("Worker failure not thrown");
+			} catch (final ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+
+			final List<TestWorker> before = Lists.newArrayList(pool.workers);
+
+			pool.process(inputs.subList(0, 100));
+
+			for (final TestWorker worker : before) {
+				if (worker.closed) {
+					assertEquals("Failed worker was used again", worker.failedAt, worker.processed);
+				}
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testReuseAndClose() throws Exception {
+
+		final List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < 100; i++) {
+			inputs.add(i);
+		}
+
+		final TestPool pool = new TestPool(2);
+
+		pool.process(inputs);
+		pool.process(inputs);
+		pool.process(inputs.subList(0, 1));
+
+		assertTrue("Workers not kept between calls", pool.workers.size() <= 2);
+
+		pool.close();
+
+		for (final TestWorker worker : pool.workers) {
+			assertTrue(worker.closed);
+		}
+
+		// Usable again, with new workers
+		final int made = pool.workers.size();
+
+		assertEquals("value-99", pool.process(inputs).get(99));
+		assertTrue(pool.workers.size() > made);
+
+		for (final TestWorker worker : pool.workers.subList(made, pool.workers.size())) {
+			assertFalse(worker.closed);
+		}
+
+		pool.close();
+	}
+
+	private static final class TestPool extends OrderedWorkerPool<Integer, String> {
+
+		private final List<TestWorker> workers = Lists.newCopyOnWriteArrayList();
+
+		TestPool(final int threads) {
+			super(threads);
+		}
+
+		@Override
+		protected Worker<Integer, String> newWorker() {
+			final TestWorker worker = new TestWorker();
+			workers.add(worker);
+			return worker;
+		}
+
+	}
+
+	/**
+	 * Fails on negative inputs.
+	 */
+	private static final class TestWorker implements OrderedWorkerPool.Worker<Integer, String> {
+
+		private volatile Thread thread;
+
+		private volatile int processed;
+
+		private volatile int failedAt = -1;
+
+		private volatile boolean closed;
+
+		@Override
+		public String process(final Integer input) {
+
+			assertFalse("Closed worker was used", closed);
+
+			thread = Thread.currentThread();
+			processed++;
+
+			if (input < 0) {
+				failedAt = processed;
+				throw new IllegalArgumentException("Negative input " + input);
+			}
+
+			return "value-" + input;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.pwhiting.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.pwhiting.sdk.vcs.core.Commit;
+
+/**
+ * Checks that entries stay in time order however they are added, and that
+ * range views follow the entries.
+ *
+ * @author phwhitin
+ *
+ */
+public class TimestampedDataContainerTest {
+
+	@Test
+	public void testAddOutOfOrder() {
+
+		final TimestampedDataContainer<Commit> container = new TimestampedDataContainer<Commit>();
+
+		for (final long time : new long[] { 50, 10, 40, 20, 30 }) {
+			container.add(commit("c" + time, time));
+		}
+
+		assertIds(container.getData(), "c10", "c20", "c30", "c40", "c50");
+	}
+
+	@Test
+	public void testAddAllOutOfOrder() {
+
+		final TimestampedDataContainer<Commit> container = new TimestampedDataContainer<Commit>();
+
+		container.addAll(Arrays.asList(commit("a", 10), commit("b", 30)));
+
+		// Older than what is there, so the whole list is sorted again
+		container.addAll(Arrays.asList(commit("c", 40), commit("d", 20), commit("e", 5)));
+
+		assertIds(container.getData(), "e", "a", "d", "b", "c");
+	}
+
+	@Test
+	public void testEqualTimesKeepOrder() {
+
+		final TimestampedDataContainer<Commit> container = new TimestampedDataContainer<Commit>();
+
+		container.addAll(Arrays.asList(commit("a", 20), commit("b", 10)));
+		container.addAll(Arrays.asList(commit("c", 20), commit("d", 10)));
+		container.add(commit("e", 10));
+
+		assertIds(container.getData(), "b", "d", "e", "a", "c");
+	}
+
+	@Test
+	public void testLimitFollowsAdds() {
+
+		final TimestampedDataContainer<Commit> container = new TimestampedDataContainer<Commit>(Lists.newArrayList(
+				commit("a", 30), commit("b", 10)));
+
+		container.limitToDateRange(Range.closed(new Date(10), new Date(20)));
+		assertIds(container.getData(), "b");
+
+		container.addAll(Arrays.asList(commit("c", 20), commit("d", 15)));
+		assertIds(container.getData(), "b", "d", "c");
+
+		container.add(commit("e", 25));
+		assertIds(container.getData(), "b", "d", "c");
+
+		assertTrue(container.isInDateRange(Range.closed(new Date(25), new Date(26))));
+		assertFalse(container.isInDateRange(Range.open(new Date(30), new Date(40))));
+
+		container.includeAll();
+		assertIds(container.getData(), "b", "d", "c", "e", "a");
+	}
+
+	private static Commit commit(final String id, final long time) {
+		return new Commit(id, new Date(time), 0, 0, 0, false, "");
+	}
+
+	private static void assertIds(final List<Commit> commits, final String... ids) {
+
+		final List<String> actual = Lists.newArrayList();
+
+		for (final Commit commit : commits) {
+			actual.add(commit.getId());
+		}
+
+		assertEquals(Arrays.asList(ids), actual);
+	}
+
+}